@@ -0,0 +1,448 @@
+package edu.cwru.sepia.agent;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import edu.cwru.sepia.environment.model.state.State.StateView;
+
+/**
+ * Benchmarks the decision and learning hot paths of RLAgent on synthetic states.
+ * 
+ * Every benchmark is run for a number of warmup iterations, so the JIT has compiled it, and then
+ * for a number of measured iterations of a fixed duration. The mean time per operation and its
+ * standard deviation over the measured iterations are reported for every benchmark and state.
+ * The results can be written to a CSV file and compared against an earlier one, in which case
+ * the program exits with status 1 if any benchmark got slower by more than the tolerance.
+ * 
+ * Usage: AgentBenchmark [key=value ...] with the options
+ * 
+ *	maps=data/rl_5fv5f.xml,data/rl_10fv10f.xml	the maps the states are generated from
+ *	sizes=0,100	the units per side, 0 for the size of the map
+ *	warmup=5	the number of warmup iterations
+ *	iterations=10	the number of measured iterations
+ *	time=200	the duration of an iteration in milliseconds
+ *	filter=	only run benchmarks whose name contains this text
+ *	output=	the CSV file to write the results to
+ *	baseline=	the CSV file of earlier results to compare against
+ *	tolerance=0.1	the allowed slowdown against the baseline, as a fraction
+ */
+public class AgentBenchmark {
+
+	//seed of the synthetic states
+	private static final long SEED = 12345;
+
+	//consumes the results of every operation so that none of them is optimized away
+	private static volatile double sink;
+
+	//the options given on the command line
+	private final Map<String, String> options = new HashMap<String, String>();
+
+	/**
+	 * One operation to measure, run repeatedly on a prepared state.
+	 */
+	private static abstract class Benchmark {
+		final String name;
+
+		Benchmark(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Runs the operation the given number of times.
+		 * 
+		 * @param operations - the number of times to run the operation
+		 * @return a value depending on the results, to be consumed
+		 */
+		abstract double run(int operations);
+	}
+
+	/**
+	 * The time per operation measured for one benchmark on one state.
+	 */
+	private static class Result {
+		final String key;
+		final double mean;
+		final double deviation;
+
+		Result(String key, double mean, double deviation) {
+			this.key = key;
+			this.mean = mean;
+			this.deviation = deviation;
+		}
+	}
+
+	public AgentBenchmark(String[] args) {
+		for (String arg : args) {
+			int split = arg.indexOf('=');
+			if (split > 0) {
+				options.put(arg.substring(0, split).trim(), arg.substring(split + 1).trim());
+			} else {
+				System.out.println("Ignoring argument " + arg + ", options must be given as key=value.");
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.exit(new AgentBenchmark(args).runAll() ? 0 : 1);
+	}
+
+	/**
+	 * Runs every benchmark on the states of every map and size, then writes and compares
+	 * the results as configured.
+	 * 
+	 * @return false if a benchmark regressed against the baseline
+	 * @throws Exception if a map or results file could not be read or written
+	 */
+	public boolean runAll() throws Exception {
+		String[] maps = getOption("maps", "data/rl_5fv5f.xml,data/rl_10fv10f.xml").split(",");
+		String[] sizes = getOption("sizes", "0,100").split(",");
+		String filter = getOption("filter", "");
+
+		List<Result> results = new ArrayList<Result>();
+		System.out.println(String.format("%-50s %14s %12s", "benchmark", "ns/op", "+/-"));
+		for (String map : maps) {
+			for (String size : sizes) {
+				BenchmarkStates states = new BenchmarkStates(map.trim(),
+						Integer.parseInt(size.trim()), SEED);
+
+				for (Benchmark benchmark : createBenchmarks(states)) {
+					if (benchmark.name.contains(filter)) {
+						Result result = measure(states.getName() + " " + benchmark.name, benchmark);
+						System.out.println(String.format("%-50s %14.1f %12.1f",
+								result.key, result.mean, result.deviation));
+						results.add(result);
+					}
+				}
+			}
+		}
+
+		String output = getOption("output", "");
+		if (!output.isEmpty()) {
+			writeResults(new File(output), results);
+		}
+
+		String baseline = getOption("baseline", "");
+		if (!baseline.isEmpty()) {
+			return compare(readResults(new File(baseline)), results,
+					Double.parseDouble(getOption("tolerance", "0.1")));
+		}
+		return true;
+	}
+
+	/**
+	 * Creates the benchmarks of the agent's hot paths on the given states.
+	 * 
+	 * @param states - the synthetic states to run the benchmarks on
+	 * @return the benchmarks
+	 */
+	private List<Benchmark> createBenchmarks(BenchmarkStates states) {
+		final GameState state = states.getState();
+		final GameState nextState = states.getNextState();
+		final AttackAction action = states.getAttack();
+		final int footmen = state.getFootmanCount();
+		final int enemies = state.getEnemyCount();
+
+		//a training agent with its own random weights, restored before every update
+		Random random = new Random(SEED);
+		final double[] initialWeights = new double[RLAgent.NUM_FEATURES];
+		for (int i = 0; i < initialWeights.length; i++) {
+			initialWeights[i] = random.nextDouble() * 2 - 1;
+		}
+		final RLAgent agent = new RLAgent(0, 1, initialWeights.clone());
+
+		//the same agent with sparse tile coded features
+		final double[] initialTileWeights = new double[new TileCoder(8, 8).getTileCount()];
+		for (int i = 0; i < initialTileWeights.length; i++) {
+			initialTileWeights[i] = random.nextDouble() * 2 - 1;
+		}
+		final RLAgent tileAgent = new RLAgent(0, 1, initialTileWeights.clone(),
+				Collections.singletonMap("tileCoding", "true"));
+
+		//the feature vectors of every pair for the Q value benchmark
+		final double[][] featureVectors = new double[footmen * enemies][];
+		for (int i = 0; i < footmen; i++) {
+			for (int j = 0; j < enemies; j++) {
+				featureVectors[i * enemies + j] = RLAgent.getFeatureVector(state,
+						state.getFootmanSlot(i), state.getEnemySlot(j), action);
+			}
+		}
+
+		final StateView stateView = states.createStateView(0);
+		final GameState readBuffer = new GameState();
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new Benchmark("getFeatureVector") {
+			@Override
+			double run(int operations) {
+				double total = 0;
+				for (int op = 0; op < operations; op++) {
+					int pair = op % (footmen * enemies);
+					total += RLAgent.getFeatureVector(state, state.getFootmanSlot(pair / enemies),
+							state.getEnemySlot(pair % enemies), action)[3];
+				}
+				return total;
+			}
+		});
+		benchmarks.add(new Benchmark("calculateQValue") {
+			@Override
+			double run(int operations) {
+				double total = 0;
+				for (int op = 0; op < operations; op++) {
+					total += agent.calculateQValue(featureVectors[op % featureVectors.length]);
+				}
+				return total;
+			}
+		});
+		benchmarks.add(new Benchmark("selectAction") {
+			@Override
+			double run(int operations) {
+				double total = 0;
+				for (int op = 0; op < operations; op++) {
+					total += agent.selectAction(state, action).size();
+				}
+				return total;
+			}
+		});
+		//the greedy action of a step is memoized per state and prior action, so the footmen
+		//after the first one of a step hit the memo, while alternating between two equal
+		//actions misses it on every update
+		final AttackAction[] alternatingActions = { action, copyOf(state, action) };
+		benchmarks.add(new Benchmark("updateWeights memo hit") {
+			@Override
+			double run(int operations) {
+				double total = 0;
+				for (int op = 0; op < operations; op++) {
+					System.arraycopy(initialWeights, 0, agent.getWeights(), 0, initialWeights.length);
+					int footman = state.getUnitId(state.getFootmanSlot(op % footmen));
+					agent.updateWeights(-0.1, nextState, state, action, footman);
+					total += agent.getWeights()[0];
+				}
+				return total;
+			}
+		});
+		benchmarks.add(new Benchmark("updateWeights memo miss") {
+			@Override
+			double run(int operations) {
+				double total = 0;
+				for (int op = 0; op < operations; op++) {
+					System.arraycopy(initialWeights, 0, agent.getWeights(), 0, initialWeights.length);
+					int footman = state.getUnitId(state.getFootmanSlot(op % footmen));
+					agent.updateWeights(-0.1, nextState, state, alternatingActions[op % 2], footman);
+					total += agent.getWeights()[0];
+				}
+				return total;
+			}
+		});
+		final double[] rewards = new double[footmen];
+		Arrays.fill(rewards, -0.1);
+		benchmarks.add(new Benchmark("updateWeightsBatch") {
+			@Override
+			double run(int operations) {
+				double total = 0;
+				for (int op = 0; op < operations; op++) {
+					System.arraycopy(initialWeights, 0, agent.getWeights(), 0, initialWeights.length);
+					agent.updateWeightsBatch(rewards, nextState, state, action);
+					total += agent.getWeights()[0];
+				}
+				return total;
+			}
+		});
+		benchmarks.add(new Benchmark("selectAction tiles") {
+			@Override
+			double run(int operations) {
+				double total = 0;
+				for (int op = 0; op < operations; op++) {
+					total += tileAgent.selectAction(state, action).size();
+				}
+				return total;
+			}
+		});
+		benchmarks.add(new Benchmark("updateWeights tiles") {
+			@Override
+			double run(int operations) {
+				double total = 0;
+				for (int op = 0; op < operations; op++) {
+					System.arraycopy(initialTileWeights, 0, tileAgent.getWeights(), 0,
+							initialTileWeights.length);
+					int footman = state.getUnitId(state.getFootmanSlot(op % footmen));
+					tileAgent.updateWeights(-0.1, nextState, state, action, footman);
+					total += tileAgent.getWeights()[0];
+				}
+				return total;
+			}
+		});
+		benchmarks.add(new Benchmark("calculateReward") {
+			@Override
+			double run(int operations) {
+				double total = 0;
+				for (int op = 0; op < operations; op++) {
+					int footman = state.getUnitId(state.getFootmanSlot(op % footmen));
+					total += agent.calculateReward(nextState, state, action, footman);
+				}
+				return total;
+			}
+		});
+		final RewardLedger ledger = new RewardLedger();
+		benchmarks.add(new Benchmark("RewardLedger") {
+			@Override
+			double run(int operations) {
+				double total = 0;
+				for (int op = 0; op < operations; op++) {
+					int footman = state.getUnitId(state.getFootmanSlot(op % footmen));
+					int enemy = state.getUnitId(state.getEnemySlot(op % enemies));
+					ledger.recordDamage(footman, enemy, 5);
+					ledger.recordDamage(enemy, footman, 5);
+					ledger.settle();
+					total += ledger.getReward(footman);
+					ledger.clear();
+				}
+				return total;
+			}
+		});
+		benchmarks.add(new Benchmark("GameState copy") {
+			@Override
+			double run(int operations) {
+				double total = 0;
+				for (int op = 0; op < operations; op++) {
+					total += new GameState(state).getEnemyCount();
+				}
+				return total;
+			}
+		});
+		benchmarks.add(new Benchmark("readState") {
+			@Override
+			double run(int operations) {
+				double total = 0;
+				for (int op = 0; op < operations; op++) {
+					readBuffer.clear(state);
+					agent.readState(stateView, readBuffer);
+					total += readBuffer.hasEvent() ? 1 : 0;
+				}
+				return total;
+			}
+		});
+		return benchmarks;
+	}
+
+	/**
+	 * Measures the time per operation of a benchmark.
+	 * 
+	 * @param key - the name of the benchmark and its state
+	 * @param benchmark - the benchmark to measure
+	 * @return the mean and standard deviation of the time per operation in nanoseconds
+	 */
+	private Result measure(String key, Benchmark benchmark) {
+		long iterationTime = Long.parseLong(getOption("time", "200")) * 1000000L;
+		int warmup = Integer.parseInt(getOption("warmup", "5"));
+		int iterations = Math.max(Integer.parseInt(getOption("iterations", "10")), 1);
+
+		//double the operations until a run is long enough to time reliably
+		int operations = 1;
+		long elapsed;
+		do {
+			operations *= 2;
+			long start = System.nanoTime();
+			sink += benchmark.run(operations);
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < iterationTime / 10 && operations < (1 << 30));
+		operations = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+				(double) operations * iterationTime / Math.max(elapsed, 1)));
+
+		for (int i = 0; i < warmup; i++) {
+			sink += benchmark.run(operations);
+		}
+
+		double[] times = new double[iterations];
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			sink += benchmark.run(operations);
+			times[i] = (System.nanoTime() - start) / (double) operations;
+		}
+
+		double mean = 0;
+		for (double time : times) {
+			mean += time;
+		}
+		mean /= iterations;
+		double variance = 0;
+		for (double time : times) {
+			variance += (time - mean) * (time - mean);
+		}
+		return new Result(key, mean, Math.sqrt(variance / iterations));
+	}
+
+	/**
+	 * Compares the results against a baseline and prints every regression.
+	 * 
+	 * @param baseline - the mean times of the baseline by benchmark
+	 * @param results - the new results
+	 * @param tolerance - the allowed slowdown, as a fraction of the baseline
+	 * @return true if no benchmark is slower than the baseline allows
+	 */
+	private static boolean compare(Map<String, Double> baseline, List<Result> results,
+			double tolerance) {
+		boolean passed = true;
+		for (Result result : results) {
+			Double before = baseline.get(result.key);
+			if (before != null && result.mean > before * (1 + tolerance)) {
+				System.out.println(String.format("REGRESSION %s: %.1f ns/op, baseline %.1f ns/op",
+						result.key, result.mean, before));
+				passed = false;
+			}
+		}
+		return passed;
+	}
+
+	//copies the action made in the given state into a new one with the same targets
+	private static AttackAction copyOf(GameState state, AttackAction action) {
+		int[] footmanSlots = new int[action.size()];
+		int[] targetSlots = new int[action.size()];
+		for (int i = 0; i < footmanSlots.length; i++) {
+			footmanSlots[i] = state.slotOf(action.getFootman(i));
+			targetSlots[i] = state.slotOf(action.getTargetAt(i));
+		}
+		return new AttackAction(state, footmanSlots, targetSlots, footmanSlots.length);
+	}
+
+	//writes the results as lines of benchmark,mean,deviation
+	private static void writeResults(File file, List<Result> results) throws IOException {
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+			for (Result result : results) {
+				writer.write(result.key + "," + result.mean + "," + result.deviation);
+				writer.newLine();
+			}
+		}
+	}
+
+	//reads the mean times of results written by writeResults
+	private static Map<String, Double> readResults(File file) throws IOException {
+		Map<String, Double> results = new LinkedHashMap<String, Double>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] values = line.split(",");
+				if (values.length >= 2) {
+					results.put(values[0], Double.parseDouble(values[1]));
+				}
+			}
+		}
+		return results;
+	}
+
+	private String getOption(String name, String defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : value;
+	}
+}
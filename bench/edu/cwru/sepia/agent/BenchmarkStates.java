@@ -0,0 +1,243 @@
+package edu.cwru.sepia.agent;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import edu.cwru.sepia.environment.model.state.PlayerState;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.State.StateView;
+import edu.cwru.sepia.environment.model.state.Unit;
+import edu.cwru.sepia.environment.model.state.UnitTemplate;
+
+/**
+ * Synthetic mid-game states for benchmarking, generated from one of the footman maps in data/.
+ * 
+ * The formation of each player on the map is scaled up by placing a square block of units
+ * where every unit of the map stands, so 5v5 and 10v10 maps can be grown to 100v100 while the
+ * two armies keep their shape and distance. The health of every unit is lowered by a seeded
+ * random amount, as it would be in the middle of a game.
+ * 
+ * The same units are available as a GameState, as a SEPIA StateView for the state reading loop
+ * of RLAgent, as a following state in which some units were hurt, moved or died, and as an
+ * attack plan where every footman attacks its closest enemy.
+ */
+public class BenchmarkStates {
+
+	//base health of a footman on the maps
+	private static final int FOOTMAN_HEALTH = 60;
+
+	//template ids of the footmen of each player, the enemy's follow the learning agent's
+	private static final int TEMPLATE_ID = 25;
+
+	private final String name;
+	private final int xExtent;
+	private final int yExtent;
+
+	//the units of both players, [player][unit] of {id, health, x, y}
+	private final List<List<int[]>> players = new ArrayList<List<int[]>>();
+
+	private final GameState state;
+	private final GameState nextState;
+	private final AttackAction attack;
+
+	/**
+	 * Generates the states from a map scaled to the given number of units per side.
+	 * 
+	 * @param mapPath - the path of a map such as data/rl_10fv10f.xml
+	 * @param unitsPerSide - the number of footmen of each player, 0 for as many as on the map
+	 * @param seed - the seed of the random health and changes
+	 * @throws Exception if the map could not be read
+	 */
+	public BenchmarkStates(String mapPath, int unitsPerSide, long seed) throws Exception {
+		Document map = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new File(mapPath));
+		Element root = map.getDocumentElement();
+		int mapX = Integer.parseInt(root.getAttribute("xExtent"));
+		int mapY = Integer.parseInt(root.getAttribute("yExtent"));
+
+		//read the positions of the units of each player
+		List<List<int[]>> formations = new ArrayList<List<int[]>>();
+		NodeList playerNodes = root.getElementsByTagName("player");
+		int largest = 1;
+		for (int p = 0; p < playerNodes.getLength(); p++) {
+			List<int[]> formation = new ArrayList<int[]>();
+			NodeList unitNodes = ((Element) playerNodes.item(p)).getElementsByTagName("unit");
+			for (int u = 0; u < unitNodes.getLength(); u++) {
+				Element unit = (Element) unitNodes.item(u);
+				formation.add(new int[] { childInt(unit, "xPosition"), childInt(unit, "yPosition") });
+			}
+			formations.add(formation);
+			largest = Math.max(largest, formation.size());
+		}
+
+		if (unitsPerSide <= 0) {
+			unitsPerSide = largest;
+		}
+
+		//every unit of the map becomes a block of scale by scale units
+		int scale = (int) Math.ceil(Math.sqrt(unitsPerSide / (double) largest));
+		xExtent = mapX * scale;
+		yExtent = mapY * scale;
+		name = new File(mapPath).getName().replace(".xml", "") + "@" + unitsPerSide + "v" + unitsPerSide;
+
+		Random random = new Random(seed);
+		int nextId = 0;
+		for (List<int[]> formation : formations) {
+			List<int[]> units = new ArrayList<int[]>();
+			for (int block = 0; block < scale * scale && units.size() < unitsPerSide; block++) {
+				for (int[] position : formation) {
+					if (units.size() == unitsPerSide) {
+						break;
+					}
+					int x = position[0] * scale + block % scale;
+					int y = position[1] * scale + block / scale;
+					int health = 1 + random.nextInt(FOOTMAN_HEALTH);
+					units.add(new int[] { nextId++, health, x, y });
+				}
+			}
+			players.add(units);
+		}
+
+		state = createGameState();
+		nextState = createNextState(state, random);
+		attack = createAttack(state);
+	}
+
+	/**
+	 * @return the name of the map and the number of units per side
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the generated state, which must not be changed
+	 */
+	public GameState getState() {
+		return state;
+	}
+
+	/**
+	 * @return the state following the generated state, in which some units were hurt,
+	 * moved or died
+	 */
+	public GameState getNextState() {
+		return nextState;
+	}
+
+	/**
+	 * @return the attack plan of the generated state, every footman attacking its closest enemy
+	 */
+	public AttackAction getAttack() {
+		return attack;
+	}
+
+	/**
+	 * Builds a SEPIA state holding the generated units.
+	 * 
+	 * @param playernum - the player the view is created for
+	 * @return the view of the state for the given player
+	 */
+	public StateView createStateView(int playernum) {
+		State.StateBuilder builder = new State.StateBuilder();
+		builder.setSize(xExtent, yExtent);
+
+		for (int p = 0; p < players.size(); p++) {
+			PlayerState player = new PlayerState(p);
+			player.setVisibilityMatrix(new int[xExtent][yExtent]);
+			builder.addPlayer(player);
+
+			UnitTemplate template = new UnitTemplate(TEMPLATE_ID + p);
+			template.setName("Footman");
+			template.setPlayer(p);
+			template.setBaseHealth(FOOTMAN_HEALTH);
+			builder.addTemplate(template);
+
+			for (int[] unit : players.get(p)) {
+				Unit footman = new Unit(template, unit[0]);
+				footman.setHP(unit[1]);
+				builder.addUnit(footman, unit[2], unit[3]);
+			}
+		}
+
+		return builder.build().getView(playernum);
+	}
+
+	//the generated units as a game state, player 0 being the learning agent
+	private GameState createGameState() {
+		GameState generated = new GameState();
+		generated.setExtent(xExtent, yExtent);
+		for (int p = 0; p < players.size(); p++) {
+			for (int[] unit : players.get(p)) {
+				if (p == 0) {
+					generated.addFootman(unit[0], unit[1], unit[2], unit[3]);
+				} else {
+					generated.addEnemy(unit[0], unit[1], unit[2], unit[3]);
+				}
+			}
+		}
+		return generated;
+	}
+
+	//a following state where a tenth of the units died and the rest were hurt or moved
+	private static GameState createNextState(GameState prior, Random random) {
+		GameState next = new GameState();
+		next.clear(prior);
+		next.setExtent(prior.getXExtent(), prior.getYExtent());
+		int slots = prior.getFootmanCount() + prior.getEnemyCount();
+		for (int slot = 0; slot < slots; slot++) {
+			if (random.nextInt(10) == 0) {
+				if (prior.containsFootman(prior.getUnitId(slot))) {
+					next.footmenDeadCount++;
+				}
+				continue;
+			}
+
+			int health = Math.max(prior.getHealth(slot) - random.nextInt(10), 1);
+			int x = prior.getX(slot) + random.nextInt(3) - 1;
+			int y = prior.getY(slot) + random.nextInt(3) - 1;
+			if (prior.containsFootman(prior.getUnitId(slot))) {
+				next.addFootman(prior.getUnitId(slot), health, x, y);
+			} else {
+				next.addEnemy(prior.getUnitId(slot), health, x, y);
+			}
+		}
+		return next;
+	}
+
+	//an attack plan where every footman attacks its closest enemy
+	private static AttackAction createAttack(GameState state) {
+		int[] footmanSlots = new int[state.getFootmanCount()];
+		int[] targetSlots = new int[state.getFootmanCount()];
+		for (int i = 0; i < state.getFootmanCount(); i++) {
+			int footmanSlot = state.getFootmanSlot(i);
+			int closest = Integer.MAX_VALUE;
+			int target = state.getEnemySlot(0);
+			for (int j = 0; j < state.getEnemyCount(); j++) {
+				int enemySlot = state.getEnemySlot(j);
+				int distance = GameState.chebyshevDistance(state.getX(footmanSlot),
+						state.getY(footmanSlot), state.getX(enemySlot), state.getY(enemySlot));
+				if (distance < closest) {
+					closest = distance;
+					target = enemySlot;
+				}
+			}
+			footmanSlots[i] = footmanSlot;
+			targetSlots[i] = target;
+		}
+		return new AttackAction(state, footmanSlots, targetSlots, footmanSlots.length);
+	}
+
+	//reads the integer value of the first child element with the given name
+	private static int childInt(Element element, String name) {
+		return Integer.parseInt(element.getElementsByTagName(name).item(0).getTextContent().trim());
+	}
+}
@@ -0,0 +1,102 @@
+package edu.cwru.sepia.agent;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks the rewards of the RewardLedger against a plain attribution of the same events.
+ * 
+ * Every sequence records random attacks and deaths between units with scattered ids into one
+ * ledger, which is settled and cleared between sequences as the agent does between steps. The
+ * same events are attributed again by going through them directly: a dead unit gets -100 and
+ * nothing for the damage it took, a living one loses the damage it took, an attacker gains the
+ * damage it dealt to units still alive and 100 once for every dead unit it hit, however often.
+ * Every unit's reward, with the 0.1 lost per step, must be the same for both.
+ * 
+ * Usage: RewardLedgerCheck [sequences] [seed]
+ * and exits with status 1 if any reward differs.
+ */
+public class RewardLedgerCheck {
+
+	//the number of sequences and the seed of their events unless given
+	private static final int SEQUENCES = 20000;
+	private static final long SEED = 12345;
+
+	public static void main(String[] args) {
+		int sequences = args.length > 0 ? Integer.parseInt(args[0]) : SEQUENCES;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : SEED;
+		int mismatches = check(sequences, new Random(seed));
+		System.out.println(sequences + " sequences checked, " + mismatches + " rewards differ.");
+		System.exit(mismatches == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Records the given number of random sequences of events and compares their rewards.
+	 * 
+	 * @param sequences - the number of sequences
+	 * @param random - the generator of the events
+	 * @return the number of rewards that differ
+	 */
+	static int check(int sequences, Random random) {
+		RewardLedger ledger = new RewardLedger();
+		ledger.begin(0);
+		int mismatches = 0;
+		for (int sequence = 0; sequence < sequences; sequence++) {
+			//the units of the sequence, with ids spread out as SEPIA gives them
+			int units = 2 + random.nextInt(30);
+			int[] ids = new int[units];
+			for (int i = 0; i < units; i++) {
+				ids[i] = random.nextInt(500);
+			}
+
+			int events = random.nextInt(60);
+			int[] attackers = new int[events];
+			int[] defenders = new int[events];
+			int[] damages = new int[events];
+			boolean[] dead = new boolean[500];
+			for (int e = 0; e < events; e++) {
+				attackers[e] = ids[random.nextInt(units)];
+				defenders[e] = ids[random.nextInt(units)];
+				damages[e] = 1 + random.nextInt(9);
+				ledger.recordDamage(attackers[e], defenders[e], damages[e]);
+				if (random.nextInt(6) == 0) {
+					int unit = ids[random.nextInt(units)];
+					dead[unit] = true;
+					ledger.recordDeath(unit);
+				}
+			}
+
+			ledger.settle();
+			double[] expected = attribute(attackers, defenders, damages, dead);
+			for (int unit = 0; unit < expected.length; unit++) {
+				if (ledger.getReward(unit) != -0.1 + expected[unit]) {
+					mismatches++;
+				}
+			}
+			ledger.clear();
+		}
+		return mismatches;
+	}
+
+	//the reward of every unit id for the given events before the step's, attributed one event
+	//at a time
+	private static double[] attribute(int[] attackers, int[] defenders, int[] damages,
+			boolean[] dead) {
+		double[] rewards = new double[dead.length];
+		for (int unit = 0; unit < rewards.length; unit++) {
+			rewards[unit] = dead[unit] ? -100 : 0;
+		}
+
+		Set<Long> kills = new HashSet<Long>();
+		for (int e = 0; e < attackers.length; e++) {
+			if (!dead[defenders[e]]) {
+				rewards[attackers[e]] += damages[e];
+				rewards[defenders[e]] -= damages[e];
+			} else if (kills.add(((long) attackers[e] << 32) | defenders[e])) {
+				rewards[attackers[e]] += 100;
+			}
+		}
+		return rewards;
+	}
+}
@@ -0,0 +1,265 @@
+package edu.cwru.sepia.agent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The mutable learning state of one RLAgent: its random generator, weights, epsilon, game
+ * counters and the bookkeeping of the current episode.
+ * 
+ * Nothing of it is static, so any number of agents can learn side by side in one JVM, each
+ * from its own random stream, without changing each other's seeds or contending on a shared
+ * generator. Only the weights may be shared, on purpose, by the workers of one run.
+ */
+public class AgentContext {
+
+	//the number of games of a round, of which the last are evaluation games
+	private static final int ROUND_GAMES = 15;
+	private static final int LEARNING_GAMES = 10;
+
+	//the schedules of learning and evaluation games: rounds of 10 learning and 5 evaluation
+	//games, only learning games while another agent evaluates snapshots of the weights, or
+	//only evaluation games, played by the agent evaluating the snapshots
+	public static final int INTERLEAVED = 0;
+	public static final int LEARNING_ONLY = 1;
+	public static final int EVALUATION_ONLY = 2;
+
+	private SplitMixRandom random;
+
+	//the Q-learning weights
+	private double[] weights;
+	private double epsilon;
+	private int schedule = INTERLEAVED;
+
+	//how much epsilon decreases after every round
+	private final double epsilonDecay;
+
+	//the number of the current game, counting from 1, and of the current evaluation game
+	private int gameNumber = 1;
+	private int evalGameNumber = 1;
+	private int gamesWon = 0;
+	private int learningGames = 0;
+
+	//the average reward of the evaluation games of every round
+	private final List<Double> rewards = new ArrayList<Double>();
+
+	//the current episode
+	private boolean evaluationMode = false;
+	private boolean firstRound = true;
+	private double gameReward = 0.0;
+	private double avgGameReward = 0.0;
+	private int episodeSteps = 0;
+
+	/**
+	 * @param random - the random generator of the agent
+	 * @param weights - the weights of the agent, may be set later
+	 * @param epsilon - the initial exploration rate
+	 * @param epsilonDecay - how much the exploration rate decreases after every round
+	 */
+	public AgentContext(SplitMixRandom random, double[] weights, double epsilon,
+			double epsilonDecay) {
+		this.random = random;
+		this.weights = weights;
+		this.epsilon = epsilon;
+		this.epsilonDecay = epsilonDecay;
+
+		//accumulate rewards from the start
+		rewards.add(avgGameReward);
+	}
+
+	/**
+	 * Resets the bookkeeping of the episode and determines whether the next game is an
+	 * evaluation game, which are the last 5 games of every 15 unless the schedule has only
+	 * learning or only evaluation games.
+	 */
+	public void beginEpisode() {
+		gameReward = 0.0;
+		episodeSteps = 0;
+		if (schedule == INTERLEAVED) {
+			evaluationMode = (gameNumber - 1) % ROUND_GAMES >= LEARNING_GAMES;
+		} else {
+			evaluationMode = schedule == EVALUATION_ONLY;
+		}
+
+		if (!evaluationMode) {
+			beginRound();
+		}
+
+		//must be the first round if a new episode begins
+		firstRound = true;
+	}
+
+	/**
+	 * Records the outcome of the current game: counts a learning game and whether it was won,
+	 * folds the reward of an evaluation game into the round's average and, after the last game
+	 * of a round, decreases epsilon and keeps the round's average reward. Without evaluation
+	 * games a round is 10 learning games, whose average reward is added by addRoundReward once
+	 * they are evaluated elsewhere, and with only evaluation games rounds are begun by the
+	 * caller.
+	 * 
+	 * @param won - whether the agent won the game
+	 * @return whether the game ended a round
+	 */
+	public boolean endEpisode(boolean won) {
+		if (!evaluationMode) {
+			learningGames++;
+			if (won) {
+				gamesWon++;
+			}
+		}
+
+		if (evaluationMode) {
+			//the current average game reward averaged over the current eval game number
+			avgGameReward = ((avgGameReward * evalGameNumber) + gameReward) / ++evalGameNumber;
+
+			//one more eval game was played
+			evalGameNumber++;
+		}
+
+		if (schedule == EVALUATION_ONLY
+				|| gameNumber % (schedule == LEARNING_ONLY ? LEARNING_GAMES : ROUND_GAMES) != 0) {
+			return false;
+		}
+
+		//explore less as we play
+		epsilon = epsilon < 0 ? 0 : epsilon - epsilonDecay;
+		if (schedule == INTERLEAVED) {
+			rewards.add(avgGameReward);
+		}
+		return true;
+	}
+
+	/**
+	 * Starts averaging the rewards of a new round of evaluation games.
+	 */
+	public void beginRound() {
+		avgGameReward = 0.0;
+		evalGameNumber = 1;
+	}
+
+	/**
+	 * Keeps the average evaluation reward of a round that was evaluated elsewhere.
+	 * 
+	 * @param reward - the average reward of the round's evaluation games
+	 */
+	public void addRoundReward(double reward) {
+		rewards.add(reward);
+	}
+
+	/**
+	 * Moves on to the next game once the current one is recorded.
+	 */
+	public void nextGame() {
+		gameNumber++;
+	}
+
+	/**
+	 * Determines whether the given number of learning episodes has been played, counting
+	 * 10 learning episodes for every 15 games since 5 of them are evaluation games, or for
+	 * every 10 games when all of them are learning games.
+	 * 
+	 * @param episodes - the number of learning episodes to play
+	 * @return whether they have been played
+	 */
+	public boolean hasPlayed(int episodes) {
+		int roundGames = schedule == INTERLEAVED ? ROUND_GAMES : LEARNING_GAMES;
+		return ((gameNumber / roundGames) * LEARNING_GAMES) >= episodes;
+	}
+
+	/**
+	 * Ends the first round of the episode, after which steps are learned from.
+	 */
+	public void endFirstRound() {
+		firstRound = false;
+	}
+
+	/**
+	 * Adds a reward to the reward of the current game.
+	 * 
+	 * @param reward - the reward of a footman
+	 */
+	public void addReward(double reward) {
+		gameReward += reward;
+	}
+
+	/**
+	 * Counts a step of the current game.
+	 */
+	public void countStep() {
+		episodeSteps++;
+	}
+
+	//basic getters and setters
+
+	public SplitMixRandom getRandom() {
+		return random;
+	}
+
+	public void setRandom(SplitMixRandom random) {
+		this.random = random;
+	}
+
+	public double[] getWeights() {
+		return weights;
+	}
+
+	public void setWeights(double[] weights) {
+		this.weights = weights;
+	}
+
+	public double getEpsilon() {
+		return epsilon;
+	}
+
+	public void setEpsilon(double epsilon) {
+		this.epsilon = epsilon;
+	}
+
+	public int getSchedule() {
+		return schedule;
+	}
+
+	/**
+	 * @param schedule - INTERLEAVED, LEARNING_ONLY or EVALUATION_ONLY, set before the first game
+	 */
+	public void setSchedule(int schedule) {
+		this.schedule = schedule;
+	}
+
+	public int getGameNumber() {
+		return gameNumber;
+	}
+
+	public int getGamesWon() {
+		return gamesWon;
+	}
+
+	public int getLearningGames() {
+		return learningGames;
+	}
+
+	public List<Double> getRewards() {
+		return Collections.unmodifiableList(rewards);
+	}
+
+	public boolean isEvaluationMode() {
+		return evaluationMode;
+	}
+
+	public boolean isFirstRound() {
+		return firstRound;
+	}
+
+	public double getAverageReward() {
+		return avgGameReward;
+	}
+
+	public double getGameReward() {
+		return gameReward;
+	}
+
+	public int getEpisodeSteps() {
+		return episodeSteps;
+	}
+}
@@ -1,24 +1,186 @@
 package edu.cwru.sepia.agent;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Attack action class that simply stores the map of actions that deal with attacking
  * for the player's footmen.
  * 
+ * An action is made from the slots of the game state it was selected in, and keeps the target
+ * slot of each footman and the number of footmen attacking each unit in dense tables indexed
+ * by those slots, along with the ids of the units in them, so looking up a target or counting
+ * the attackers of an enemy is an array read that never boxes or hashes a value.
+ * 
+ * The action is queried with the state at hand and a slot or id of it. The states of the
+ * following steps number their slots the same way until a unit dies, so the slot is checked
+ * against the unit in it and only a unit that moved to another slot is searched for. An action
+ * never changes once created; withTarget copies it with one target changed, sharing the tables
+ * the change does not touch.
+ * 
  * @author Shaun Howard (smh150)
- *
+ * 
  */
 public class AttackAction {
-	private Map<Integer, Integer> attack = new HashMap<Integer, Integer>();
-	
-	public AttackAction(Map<Integer, Integer> attack) {
-		this.attack = new HashMap<Integer, Integer>(attack);
+
+	//marks a footman without a target
+	public static final int NO_TARGET = -1;
+
+	//the ids of the units of the state the action was made in, indexed by slot
+	private final int[] slotIds;
+
+	//the slot of the target of each footman and the number of footmen attacking each unit,
+	//indexed by slot
+	private final int[] targetSlots;
+	private final int[] attackerCounts;
+
+	//the slots of the footmen with a target, in the order they were given
+	private final int[] footmanSlots;
+
+	/**
+	 * Creates an action where no footman attacks.
+	 */
+	public AttackAction() {
+		this(new int[0], new int[0], new int[0], new int[0]);
+	}
+
+	/**
+	 * Creates an action where each of the given footmen attacks the target at the same index.
+	 * 
+	 * @param state - the state the footmen and targets are in
+	 * @param footmanSlots - the slots of the attacking footmen, each at most once
+	 * @param targetSlots - the slots of their targets
+	 * @param count - the number of footmen given
+	 */
+	public AttackAction(GameState state, int[] footmanSlots, int[] targetSlots, int count) {
+		int units = state.getUnitCount();
+		this.slotIds = new int[units];
+		for (int slot = 0; slot < units; slot++) {
+			slotIds[slot] = state.getUnitId(slot);
+		}
+		this.targetSlots = new int[units];
+		this.attackerCounts = new int[units];
+		this.footmanSlots = Arrays.copyOf(footmanSlots, count);
+
+		Arrays.fill(this.targetSlots, NO_TARGET);
+		for (int i = 0; i < count; i++) {
+			this.targetSlots[footmanSlots[i]] = targetSlots[i];
+			attackerCounts[targetSlots[i]]++;
+		}
+	}
+
+	private AttackAction(int[] slotIds, int[] targetSlots, int[] attackerCounts,
+			int[] footmanSlots) {
+		this.slotIds = slotIds;
+		this.targetSlots = targetSlots;
+		this.attackerCounts = attackerCounts;
+		this.footmanSlots = footmanSlots;
+	}
+
+	/**
+	 * @return the number of footmen with a target
+	 */
+	public int size() {
+		return footmanSlots.length;
+	}
+
+	/**
+	 * @param index - the index of the footman among the footmen of this action
+	 * @return the id of the footman
+	 */
+	public int getFootman(int index) {
+		return slotIds[footmanSlots[index]];
+	}
+
+	/**
+	 * @param index - the index of the footman among the footmen of this action
+	 * @return the id of the footman's target
+	 */
+	public int getTargetAt(int index) {
+		return slotIds[targetSlots[footmanSlots[index]]];
+	}
+
+	/**
+	 * @param state - the state the footman is in
+	 * @param footman - the id of a footman
+	 * @return the id of the footman's target, or NO_TARGET if it has none
+	 */
+	public int getTarget(GameState state, int footman) {
+		return targetOf(slotOf(footman, state.slotOf(footman)));
+	}
+
+	/**
+	 * @param state - the state the footman is in
+	 * @param footmanSlot - the slot of the footman in the state
+	 * @return the id of the footman's target, or NO_TARGET if it has none
+	 */
+	public int getTargetBySlot(GameState state, int footmanSlot) {
+		return targetOf(slotOf(state.getUnitId(footmanSlot), footmanSlot));
+	}
+
+	/**
+	 * @param state - the state the unit is in
+	 * @param target - the id of a unit
+	 * @return the number of footmen attacking the unit
+	 */
+	public int getAttackerCount(GameState state, int target) {
+		int slot = slotOf(target, state.slotOf(target));
+		return slot == NO_TARGET ? 0 : attackerCounts[slot];
+	}
+
+	/**
+	 * @param state - the state the unit is in
+	 * @param targetSlot - the slot of the unit in the state
+	 * @return the number of footmen attacking the unit
+	 */
+	public int getAttackerCountBySlot(GameState state, int targetSlot) {
+		int slot = slotOf(state.getUnitId(targetSlot), targetSlot);
+		return slot == NO_TARGET ? 0 : attackerCounts[slot];
+	}
+
+	/**
+	 * Copies this action with the target of one footman changed or added. The copy shares
+	 * the unit ids with this action and the footmen too when the footman already had a target.
+	 * 
+	 * @param footmanSlot - the slot of the footman in the state this action was made in
+	 * @param targetSlot - the slot of its new target in that state
+	 * @return the new action
+	 */
+	public AttackAction withTarget(int footmanSlot, int targetSlot) {
+		int[] newTargetSlots = targetSlots.clone();
+		int[] newAttackerCounts = attackerCounts.clone();
+		int[] newFootmanSlots = footmanSlots;
+
+		int oldTarget = targetSlots[footmanSlot];
+		if (oldTarget == NO_TARGET) {
+			newFootmanSlots = Arrays.copyOf(footmanSlots, footmanSlots.length + 1);
+			newFootmanSlots[footmanSlots.length] = footmanSlot;
+		} else {
+			newAttackerCounts[oldTarget]--;
+		}
+		newTargetSlots[footmanSlot] = targetSlot;
+		newAttackerCounts[targetSlot]++;
+		return new AttackAction(slotIds, newTargetSlots, newAttackerCounts, newFootmanSlots);
+	}
+
+	//the id of the target of the footman in the given slot of this action, if any
+	private int targetOf(int slot) {
+		if (slot == NO_TARGET || targetSlots[slot] == NO_TARGET) {
+			return NO_TARGET;
+		}
+		return slotIds[targetSlots[slot]];
 	}
 
-	public Map<Integer, Integer> getAttack() {
-		return attack;
+	//the slot of the unit in the state of this action, which is the given slot of the state
+	//at hand unless a unit died since, or NO_TARGET if the unit is not in this action's state
+	private int slotOf(int id, int slot) {
+		if (slot >= 0 && slot < slotIds.length && slotIds[slot] == id) {
+			return slot;
+		}
+		for (int i = 0; i < slotIds.length; i++) {
+			if (slotIds[i] == id) {
+				return i;
+			}
+		}
+		return NO_TARGET;
 	}
-	
 }
@@ -0,0 +1,193 @@
+package edu.cwru.sepia.agent;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists weight checkpoints on a background thread so the agent never waits on file I/O.
+ * 
+ * Snapshots of the weights are handed over through a bounded queue. The writer coalesces
+ * whatever has queued up into the latest snapshot and writes it once enough episodes have
+ * passed since the last write, or enough time for the snapshot to be considered stale.
+ * When the queue is full the oldest queued snapshot is dropped, since a newer one supersedes it.
+ * Closing the writer flushes the latest snapshot before returning, and a shutdown hook does
+ * the same if the JVM exits without the writer having been closed.
+ */
+public class CheckpointWriter {
+
+	//marks the end of the snapshots in the queue
+	private static final Pending CLOSE = new Pending(null, 0, 0);
+
+	//the checkpoint ring the snapshots are written to
+	private final WeightCheckpoint checkpoint;
+	private final double alpha;
+	private final double gamma;
+
+	//how often snapshots are written, in episodes and in nanoseconds (0 to only count episodes)
+	private final int episodeInterval;
+	private final long timeInterval;
+
+	//snapshots waiting to be written
+	private final BlockingQueue<Pending> queue;
+
+	private final Thread thread;
+	private final Thread shutdownHook;
+	private volatile boolean closed = false;
+
+	/**
+	 * A copy of the weights waiting to be written.
+	 */
+	private static class Pending {
+		final double[] weights;
+		final int episode;
+		final double epsilon;
+
+		Pending(double[] weights, int episode, double epsilon) {
+			this.weights = weights;
+			this.episode = episode;
+			this.epsilon = epsilon;
+		}
+	}
+
+	/**
+	 * Starts a writer for the given checkpoint ring.
+	 * 
+	 * @param checkpoint - the checkpoint ring to write to
+	 * @param alpha - the learning rate stored with every snapshot
+	 * @param gamma - the discount factor stored with every snapshot
+	 * @param episodeInterval - write after this many episodes since the last write
+	 * @param seconds - write after this many seconds since the last write, 0 to disable
+	 * @param capacity - the number of snapshots that can wait in the queue
+	 */
+	public CheckpointWriter(WeightCheckpoint checkpoint, double alpha, double gamma,
+			int episodeInterval, int seconds, int capacity) {
+		this.checkpoint = checkpoint;
+		this.alpha = alpha;
+		this.gamma = gamma;
+		this.episodeInterval = Math.max(episodeInterval, 1);
+		this.timeInterval = TimeUnit.SECONDS.toNanos(Math.max(seconds, 0));
+		this.queue = new ArrayBlockingQueue<Pending>(Math.max(capacity, 1));
+
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "checkpoint-writer");
+		thread.setDaemon(true);
+		thread.start();
+
+		shutdownHook = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				close();
+			}
+		}, "checkpoint-flush");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Queues a copy of the weights to be checkpointed.
+	 * 
+	 * @param weights - the weights, copied before returning
+	 * @param episode - the number of episodes played with the weights
+	 * @param epsilon - the current exploration value
+	 */
+	public synchronized void submit(double[] weights, int episode, double epsilon) {
+		if (closed) {
+			return;
+		}
+		Pending pending = new Pending(weights.clone(), episode, epsilon);
+
+		//make room by dropping the oldest snapshots, the new one supersedes them
+		while (!queue.offer(pending)) {
+			queue.poll();
+		}
+	}
+
+	/**
+	 * Writes the latest submitted snapshot and stops the writer thread.
+	 * Calling this more than once has no further effect.
+	 */
+	public void close() {
+		try {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				queue.put(CLOSE);
+			}
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		//the hook cannot be removed while the JVM is already shutting down
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			// already shutting down
+		}
+	}
+
+	//writes the coalesced snapshots at the configured cadence until closed
+	private void writeLoop() {
+		Pending latest = null;
+		int lastEpisode = 0;
+		long lastWrite = System.nanoTime();
+
+		try {
+			while (true) {
+				//wait for the next snapshot, or until the time to write the held one has come
+				Pending next;
+				if (latest == null || timeInterval == 0) {
+					next = queue.take();
+				} else {
+					long wait = lastWrite + timeInterval - System.nanoTime();
+					next = queue.poll(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+				}
+
+				//coalesce everything that queued up into the latest snapshot
+				boolean closing = false;
+				while (next != null) {
+					if (next == CLOSE) {
+						closing = true;
+					} else {
+						latest = next;
+					}
+					next = queue.poll();
+				}
+
+				if (latest != null && (closing || latest.episode - lastEpisode >= episodeInterval
+						|| (timeInterval > 0 && System.nanoTime() - lastWrite >= timeInterval))) {
+					write(latest);
+					lastEpisode = latest.episode;
+					lastWrite = System.nanoTime();
+					latest = null;
+				}
+
+				if (closing) {
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			//write what is held before giving up
+			if (latest != null) {
+				write(latest);
+			}
+		}
+	}
+
+	//writes a snapshot to the checkpoint ring
+	private void write(Pending pending) {
+		try {
+			checkpoint.save(pending.weights, pending.episode, pending.epsilon, alpha, gamma);
+		} catch (IOException ex) {
+			System.err.println("Failed to write weights checkpoint. Reason: "
+					+ ex.getMessage());
+		}
+	}
+}
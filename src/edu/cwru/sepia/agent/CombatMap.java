@@ -0,0 +1,258 @@
+package edu.cwru.sepia.agent;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import edu.cwru.sepia.environment.model.state.PlayerState;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.StateCreator;
+import edu.cwru.sepia.environment.model.state.Unit;
+import edu.cwru.sepia.environment.model.state.UnitTemplate;
+
+/**
+ * The footmen of a SEPIA footman map such as data/rl_10fv10f.xml along with the combat
+ * statistics of each player's footman template.
+ * 
+ * The map is read with the JDK's own XML parser, so it can be used without JAXB. Besides being
+ * played by the CombatSimulator, the map can be built into a SEPIA state holding only the
+ * footmen, which lets the simulator be compared with SEPIA itself.
+ */
+public class CombatMap {
+
+	//the name of the unit template of the footmen
+	private static final String FOOTMAN = "Footman";
+
+	private final String name;
+	private final int xExtent;
+	private final int yExtent;
+
+	//the footman template and the footmen of each player, indexed by player number
+	private final List<FootmanTemplate> templates = new ArrayList<FootmanTemplate>();
+	private final List<List<Footman>> footmen = new ArrayList<List<Footman>>();
+
+	/**
+	 * The combat statistics of a player's footmen.
+	 */
+	public static class FootmanTemplate {
+		public final int id;
+		public final int baseHealth;
+		public final int basicAttack;
+		public final int piercingAttack;
+		public final int range;
+		public final int armor;
+		public final int sightRange;
+
+		public FootmanTemplate(int id, int baseHealth, int basicAttack, int piercingAttack,
+				int range, int armor, int sightRange) {
+			this.id = id;
+			this.baseHealth = baseHealth;
+			this.basicAttack = basicAttack;
+			this.piercingAttack = piercingAttack;
+			this.range = range;
+			this.armor = armor;
+			this.sightRange = sightRange;
+		}
+	}
+
+	/**
+	 * A footman standing on the map.
+	 */
+	public static class Footman {
+		public final int id;
+		public final int health;
+		public final int x;
+		public final int y;
+
+		public Footman(int id, int health, int x, int y) {
+			this.id = id;
+			this.health = health;
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	/**
+	 * Creates a map from its parts.
+	 * 
+	 * @param name - the name of the map
+	 * @param xExtent - the width of the map
+	 * @param yExtent - the height of the map
+	 * @param templates - the footman template of each player
+	 * @param footmen - the footmen of each player
+	 */
+	public CombatMap(String name, int xExtent, int yExtent, List<FootmanTemplate> templates,
+			List<List<Footman>> footmen) {
+		this.name = name;
+		this.xExtent = xExtent;
+		this.yExtent = yExtent;
+		this.templates.addAll(templates);
+		for (List<Footman> playerFootmen : footmen) {
+			this.footmen.add(Collections.unmodifiableList(new ArrayList<Footman>(playerFootmen)));
+		}
+	}
+
+	/**
+	 * Reads the footmen and footman templates of every player of a SEPIA map.
+	 * 
+	 * @param path - the path of the map
+	 * @return the map
+	 * @throws Exception if the map could not be read or a player has no footman template
+	 */
+	public static CombatMap load(String path) throws Exception {
+		Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new File(path));
+		Element root = document.getDocumentElement();
+
+		List<FootmanTemplate> templates = new ArrayList<FootmanTemplate>();
+		List<List<Footman>> footmen = new ArrayList<List<Footman>>();
+		for (Element player : children(root, "player")) {
+			FootmanTemplate template = null;
+			for (Element element : children(player, "template")) {
+				if (FOOTMAN.equals(childText(element, "name"))) {
+					template = new FootmanTemplate(childInt(element, "ID"),
+							childInt(element, "baseHealth"), childInt(element, "baseAttack"),
+							childInt(element, "piercingAttack"), childInt(element, "range"),
+							childInt(element, "armor"), childInt(element, "sightRange"));
+				}
+			}
+			if (template == null) {
+				throw new IllegalArgumentException("Player " + childText(player, "ID")
+						+ " of " + path + " has no footman template.");
+			}
+
+			List<Footman> playerFootmen = new ArrayList<Footman>();
+			for (Element unit : children(player, "unit")) {
+				if (childInt(unit, "templateID") == template.id) {
+					playerFootmen.add(new Footman(childInt(unit, "ID"), childInt(unit, "currentHealth"),
+							childInt(unit, "xPosition"), childInt(unit, "yPosition")));
+				}
+			}
+			templates.add(template);
+			footmen.add(playerFootmen);
+		}
+
+		return new CombatMap(new File(path).getName().replace(".xml", ""),
+				Integer.parseInt(root.getAttribute("xExtent")),
+				Integer.parseInt(root.getAttribute("yExtent")), templates, footmen);
+	}
+
+	//basic getters
+
+	public String getName() {
+		return name;
+	}
+
+	public int getXExtent() {
+		return xExtent;
+	}
+
+	public int getYExtent() {
+		return yExtent;
+	}
+
+	public int getPlayerCount() {
+		return footmen.size();
+	}
+
+	public FootmanTemplate getTemplate(int player) {
+		return templates.get(player);
+	}
+
+	public List<Footman> getFootmen(int player) {
+		return footmen.get(player);
+	}
+
+	/**
+	 * Builds a SEPIA state holding the footmen of the map with their templates.
+	 * 
+	 * @return the new state
+	 */
+	public State createState() {
+		State.StateBuilder builder = new State.StateBuilder();
+		builder.setSize(xExtent, yExtent);
+
+		int maxId = 0;
+		for (int player = 0; player < footmen.size(); player++) {
+			PlayerState playerState = new PlayerState(player);
+			playerState.setVisibilityMatrix(new int[xExtent][yExtent]);
+			builder.addPlayer(playerState);
+
+			FootmanTemplate footmanTemplate = templates.get(player);
+			UnitTemplate template = new UnitTemplate(footmanTemplate.id);
+			template.setName(FOOTMAN);
+			template.setPlayer(player);
+			template.setBaseHealth(footmanTemplate.baseHealth);
+			template.setBasicAttack(footmanTemplate.basicAttack);
+			template.setPiercingAttack(footmanTemplate.piercingAttack);
+			template.setRange(footmanTemplate.range);
+			template.setArmor(footmanTemplate.armor);
+			template.setSightRange(footmanTemplate.sightRange);
+			template.setCanMove(true);
+			template.setDurationMove(1);
+			template.setDurationAttack(1);
+			builder.addTemplate(template);
+			maxId = Math.max(maxId, footmanTemplate.id);
+
+			for (Footman footman : footmen.get(player)) {
+				Unit unit = new Unit(template, footman.id);
+				unit.setHP(footman.health);
+				builder.addUnit(unit, footman.x, footman.y);
+				maxId = Math.max(maxId, footman.id);
+			}
+		}
+
+		//new ids must not collide with those of the map
+		builder.setIDDistributerTemplateMax(maxId);
+		builder.setIDDistributerTargetMax(maxId);
+		return builder.build();
+	}
+
+	/**
+	 * Creates a fresh state of this map for every episode of a SEPIA model.
+	 * 
+	 * @return the state creator
+	 */
+	public StateCreator createStateCreator() {
+		return new StateCreator() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public State createState() {
+				return CombatMap.this.createState();
+			}
+		};
+	}
+
+	//the child elements with the given name
+	private static List<Element> children(Element parent, String name) {
+		List<Element> children = new ArrayList<Element>();
+		NodeList nodes = parent.getChildNodes();
+		for (int i = 0; i < nodes.getLength(); i++) {
+			Node node = nodes.item(i);
+			if (node instanceof Element && name.equals(node.getNodeName())) {
+				children.add((Element) node);
+			}
+		}
+		return children;
+	}
+
+	//the text of the first child element with the given name, or null if there is none
+	private static String childText(Element parent, String name) {
+		List<Element> children = children(parent, name);
+		return children.isEmpty() ? null : children.get(0).getTextContent().trim();
+	}
+
+	//the integer value of the first child element with the given name
+	private static int childInt(Element parent, String name) {
+		return Integer.parseInt(childText(parent, name));
+	}
+}
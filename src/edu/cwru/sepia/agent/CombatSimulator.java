@@ -0,0 +1,527 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Random;
+
+import edu.cwru.sepia.environment.Environment;
+import edu.cwru.sepia.environment.model.SimpleModel;
+import edu.cwru.sepia.experiment.Configuration;
+import edu.cwru.sepia.experiment.ConfigurationValues;
+
+/**
+ * A headless footman combat simulator that plays the RLAgent against the enemy footmen without
+ * running SEPIA, for fast training rollouts.
+ * 
+ * The simulator mirrors the rules of SEPIA that matter to the agent: every turn each footman
+ * with a living target attacks it when it is within range, dealing SEPIA's randomized damage
+ * (basic attack less armor, at least 1, plus piercing attack), and otherwise steps onto the free
+ * neighbouring tile closest to it. An attack completes the order, as SEPIA's compound attack does,
+ * and a footman whose way is blocked gives up its order like a failed SEPIA action. Idle enemies
+ * behave like SEPIA's CombatAgent and attack the first of our footmen within their sight range,
+ * in the order SEPIA lists our units, which is not necessarily the closest. Dead footmen are
+ * removed at the end of the turn and the game ends when either side has no footmen left, or when
+ * the turn limit is reached.
+ * 
+ * The attacks of a turn land together as in SEPIA, so units killed in a turn still strike back
+ * and no unit swings at a target that is already dead. Paths are however found greedily instead
+ * of with SEPIA's planner, so the simulator is only an approximation of SEPIA: single games
+ * differ, and over 40 games of the same weights on rl_10fv10f it won 33 where SEPIA won 40, with
+ * 2.3 footmen surviving instead of 4.1 and 40 turns instead of 43. The validate mode plays the
+ * same agent in both and compares their win rates and game lengths, and policies trained in the
+ * simulator should be checked in SEPIA.
+ * 
+ * Usage: CombatSimulator mapFile episodes [loadWeights] [key=value ...]
+ * or: CombatSimulator validate mapFile episodes
+ * where the episodes, loadWeights and options are the arguments of the RLAgent
+ */
+public class CombatSimulator {
+
+	//the player numbers of the learning agent and the enemy
+	static final int AGENT_PLAYER = 0;
+
+	//the number of turns after which an unfinished game is stopped
+	public static final int DEFAULT_TURN_LIMIT = 10000;
+
+	//marks a free tile or a unit without a target
+	private static final int NONE = -1;
+
+	//the offsets of the eight neighbouring tiles
+	private static final int[] DIRECTION_X = { 0, 1, 1, 1, 0, -1, -1, -1 };
+	private static final int[] DIRECTION_Y = { -1, -1, 0, 1, 1, 1, 0, -1 };
+
+	private final CombatMap map;
+	private final Random random;
+	private final int turnLimit;
+
+	//unit columns, indexed by unit, in the order of the map's players and footmen
+	private final int[] unitIds;
+	private final int[] unitPlayers;
+	private final int[] unitHealth;
+	private final int[] unitX;
+	private final int[] unitY;
+	private final int[] unitTargets;
+
+	//the damage each unit takes in the current turn, applied once every unit has acted
+	private final int[] pendingDamage;
+	private final int unitCount;
+
+	//our footmen in the order SEPIA lists them, which is that of a hash set of their ids
+	private final int[] footmanOrder;
+
+	//unit index of each id and the unit standing on each tile
+	private final int[] unitById;
+	private final int[] occupant;
+
+	//number of living footmen of each player
+	private final int[] aliveCount;
+	private int turnNumber = 0;
+
+	//records the attacks and deaths of the game for the agent's rewards, null if it diffs states
+	private RewardLedger ledger;
+
+	/**
+	 * Creates a simulator for the given map with the default turn limit.
+	 * 
+	 * @param map - the map to play
+	 * @param seed - the seed of the damage dealt
+	 */
+	public CombatSimulator(CombatMap map, long seed) {
+		this(map, seed, DEFAULT_TURN_LIMIT);
+	}
+
+	/**
+	 * Creates a simulator for the given map.
+	 * 
+	 * @param map - the map to play
+	 * @param seed - the seed of the damage dealt
+	 * @param turnLimit - the number of turns after which a game is stopped
+	 */
+	public CombatSimulator(CombatMap map, long seed, int turnLimit) {
+		this.map = map;
+		this.random = new Random(seed);
+		this.turnLimit = turnLimit;
+
+		int count = 0;
+		int maxId = 0;
+		for (int player = 0; player < map.getPlayerCount(); player++) {
+			for (CombatMap.Footman footman : map.getFootmen(player)) {
+				count++;
+				maxId = Math.max(maxId, footman.id);
+			}
+		}
+		unitCount = count;
+		unitIds = new int[count];
+		unitPlayers = new int[count];
+		unitHealth = new int[count];
+		unitX = new int[count];
+		unitY = new int[count];
+		unitTargets = new int[count];
+		pendingDamage = new int[count];
+		unitById = new int[maxId + 1];
+		occupant = new int[map.getXExtent() * map.getYExtent()];
+		aliveCount = new int[map.getPlayerCount()];
+
+		reset();
+
+		Set<Integer> footmanIds = new HashSet<Integer>();
+		for (CombatMap.Footman footman : map.getFootmen(AGENT_PLAYER)) {
+			footmanIds.add(footman.id);
+		}
+		footmanOrder = new int[footmanIds.size()];
+		int index = 0;
+		for (Integer id : footmanIds) {
+			footmanOrder[index++] = unitById[id];
+		}
+	}
+
+	/**
+	 * Puts every footman of the map back in its place with its starting health.
+	 */
+	public void reset() {
+		Arrays.fill(occupant, NONE);
+		Arrays.fill(unitById, NONE);
+		Arrays.fill(aliveCount, 0);
+		turnNumber = 0;
+
+		int unit = 0;
+		for (int player = 0; player < map.getPlayerCount(); player++) {
+			for (CombatMap.Footman footman : map.getFootmen(player)) {
+				unitIds[unit] = footman.id;
+				unitPlayers[unit] = player;
+				unitHealth[unit] = footman.health;
+				unitX[unit] = footman.x;
+				unitY[unit] = footman.y;
+				unitTargets[unit] = NONE;
+				unitById[footman.id] = unit;
+				occupant[tile(footman.x, footman.y)] = unit;
+				aliveCount[player]++;
+				unit++;
+			}
+		}
+	}
+
+	/**
+	 * @return whether either side has lost all of its footmen or the turn limit was reached
+	 */
+	public boolean isTerminated() {
+		for (int player = 0; player < aliveCount.length; player++) {
+			if (aliveCount[player] == 0) {
+				return true;
+			}
+		}
+		return turnNumber >= turnLimit;
+	}
+
+	/**
+	 * @return whether the agent has footmen left and the enemy has none
+	 */
+	public boolean hasWon() {
+		for (int player = 0; player < aliveCount.length; player++) {
+			if ((player == AGENT_PLAYER) != (aliveCount[player] > 0)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int getTurnNumber() {
+		return turnNumber;
+	}
+
+	/**
+	 * @return the number of footmen of the agent still alive
+	 */
+	public int getSurvivors() {
+		return aliveCount[AGENT_PLAYER];
+	}
+
+	/**
+	 * Adds the living footmen to the given state, those of the agent as footmen and all others
+	 * as enemies.
+	 * 
+	 * @param state - the cleared state to fill
+	 */
+	public void fill(GameState state) {
+		state.setExtent(map.getXExtent(), map.getYExtent());
+		for (int unit = 0; unit < unitCount; unit++) {
+			if (unitHealth[unit] > 0) {
+				if (unitPlayers[unit] == AGENT_PLAYER) {
+					state.addFootman(unitIds[unit], unitHealth[unit], unitX[unit], unitY[unit]);
+				} else {
+					state.addEnemy(unitIds[unit], unitHealth[unit], unitX[unit], unitY[unit]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Orders the agent's footmen to attack the given targets.
+	 * 
+	 * @param attack - the target of each footman
+	 */
+	public void setOrders(AttackAction attack) {
+		for (int i = 0; i < attack.size(); i++) {
+			int unit = unitOf(attack.getFootman(i));
+			int target = unitOf(attack.getTargetAt(i));
+			if (unit != NONE && unitPlayers[unit] == AGENT_PLAYER && target != NONE
+					&& unitHealth[target] > 0) {
+				unitTargets[unit] = target;
+			}
+		}
+	}
+
+	/**
+	 * Plays one turn: idle enemies pick their targets, every footman attacks or moves towards
+	 * its target and the dead are removed.
+	 * 
+	 * As in SEPIA, every unit alive at the start of the turn acts, even one killed by an
+	 * attack earlier in the same turn, and the health of the units changes only once all of
+	 * them have acted, so the outcome of the attacks does not depend on the order the units
+	 * act in. Only moves are made one unit after another.
+	 */
+	public void executeStep() {
+		//idle enemies attack the first of our footmen they can see
+		for (int unit = 0; unit < unitCount; unit++) {
+			if (unitHealth[unit] > 0 && unitPlayers[unit] != AGENT_PLAYER && unitTargets[unit] == NONE) {
+				unitTargets[unit] = firstVisibleFootman(unit);
+			}
+		}
+
+		for (int unit = 0; unit < unitCount; unit++) {
+			int target = unitTargets[unit];
+			if (unitHealth[unit] <= 0 || target == NONE || unitHealth[target] <= 0) {
+				continue;
+			}
+
+			CombatMap.FootmanTemplate template = map.getTemplate(unitPlayers[unit]);
+			if (distance(unit, target) <= template.range) {
+				int damage = calculateDamage(template, map.getTemplate(unitPlayers[target]));
+				pendingDamage[target] += damage;
+				unitTargets[unit] = NONE;
+				if (ledger != null) {
+					ledger.recordDamage(unitIds[unit], unitIds[target], damage);
+				}
+			} else if (!moveTowards(unit, target)) {
+				//a blocked unit gives up like a failed SEPIA action
+				unitTargets[unit] = NONE;
+			}
+		}
+
+		//the attacks of the turn land together
+		for (int unit = 0; unit < unitCount; unit++) {
+			unitHealth[unit] = Math.max(unitHealth[unit] - pendingDamage[unit], 0);
+			pendingDamage[unit] = 0;
+		}
+
+		//remove the dead and forget any orders to attack them
+		for (int unit = 0; unit < unitCount; unit++) {
+			if (unitHealth[unit] <= 0 && occupant[tile(unitX[unit], unitY[unit])] == unit) {
+				occupant[tile(unitX[unit], unitY[unit])] = NONE;
+				aliveCount[unitPlayers[unit]]--;
+				if (ledger != null) {
+					ledger.recordDeath(unitIds[unit]);
+				}
+			}
+		}
+		for (int unit = 0; unit < unitCount; unit++) {
+			if (unitTargets[unit] != NONE && unitHealth[unitTargets[unit]] <= 0) {
+				unitTargets[unit] = NONE;
+			}
+		}
+
+		turnNumber++;
+	}
+
+	/**
+	 * Plays a whole game with the given agent, which learns from it as it would from SEPIA.
+	 * 
+	 * @param agent - the learning agent
+	 * @return whether the agent won
+	 */
+	public boolean playEpisode(RLAgent agent) {
+		reset();
+		agent.beginEpisode(0);
+		ledger = agent.getRewardLedger();
+		TrainingMetrics metrics = agent.getMetrics();
+		while (!isTerminated()) {
+			long time = metrics.time();
+			GameState state = agent.nextStateBuffer();
+			fill(state);
+			metrics.record(TrainingMetrics.STATE, time);
+			AttackAction action = agent.step(state);
+			if (action != null) {
+				setOrders(action);
+			}
+			executeStep();
+		}
+
+		boolean won = hasWon();
+		agent.endEpisode(won);
+		return won;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length >= 3 && args[0].equals("validate")) {
+			validate(CombatMap.load(args[1]), Integer.parseInt(args[2]));
+
+			//SEPIA leaves its agent threads running
+			System.exit(0);
+		} else if (args.length >= 2) {
+			train(CombatMap.load(args[0]), Arrays.copyOfRange(args, 1, args.length));
+		} else {
+			System.out.println("Usage: CombatSimulator mapFile episodes [loadWeights] [key=value ...]");
+			System.out.println("   or: CombatSimulator validate mapFile episodes");
+		}
+	}
+
+	/**
+	 * Trains the weights as the agent would in SEPIA and saves them once all episodes are played.
+	 * With concurrentEvaluation=true every game is a learning game while the evaluation games
+	 * are played on snapshots of the weights in a simulator of their own, on another thread,
+	 * and the learning curve is printed at the end.
+	 * 
+	 * @param map - the map to play
+	 * @param agentArguments - the arguments of the agent: episodes, loadWeights and options
+	 */
+	private static void train(CombatMap map, String[] agentArguments) {
+		//the configured agent loads or randomly initializes the weights and saves them
+		RLAgent master = new RLAgent(AGENT_PLAYER, agentArguments);
+		RLAgent worker = new RLAgent(AGENT_PLAYER, master.getEpisodes(), master.getWeights(),
+				master.getOptions());
+		worker.reportTo(master);
+		worker.splitRandom(master);
+		boolean concurrentEvaluation = Boolean.parseBoolean(
+				master.getOptions().get("concurrentEvaluation"));
+		if (concurrentEvaluation) {
+			worker.evaluateWith(SnapshotEvaluator.forSimulator(map, 1, worker));
+		}
+		CombatSimulator simulator = new CombatSimulator(map, 0);
+
+		long start = System.nanoTime();
+		while (!worker.isFinished()) {
+			simulator.playEpisode(worker);
+		}
+		//wait for the last snapshots, whose games count towards the time of the run
+		worker.takeEvaluations(true);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		if (concurrentEvaluation) {
+			master.printTestData(worker.getRewards());
+		}
+
+		master.saveWeights(RLAgent.boxWeights(master.getWeights()));
+		master.saveCheckpoint(worker.getGameNumber());
+		master.closeCheckpoints();
+		master.closeReports();
+		System.out.println("Games played: " + worker.getGameNumber()
+				+ String.format(", games per second: %.2f", worker.getGameNumber() / seconds));
+		System.out.println("Games won: " + worker.getGamesWon());
+	}
+
+	/**
+	 * Plays the same agent in SEPIA and in the simulator and prints how often it won,
+	 * how long the games lasted and how many footmen survived in each. The weights are
+	 * reset before every game so both play the same policy throughout.
+	 * 
+	 * @param map - the map to play
+	 * @param episodes - the number of games to play in each
+	 * @throws InterruptedException if interrupted while playing SEPIA
+	 */
+	private static void validate(CombatMap map, int episodes) throws InterruptedException {
+		double[] weights = new double[RLAgent.NUM_FEATURES];
+		Random random = new Random(12345);
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = random.nextDouble() * 2 - 1;
+		}
+
+		//SEPIA with the map's footmen and the scripted enemy
+		Configuration configuration = new Configuration();
+		configuration.put(ConfigurationValues.MODEL_CONQUEST.key, true);
+		configuration.put(ConfigurationValues.MODEL_MIDAS.key, false);
+		configuration.put(ConfigurationValues.MODEL_MANIFEST_DESTINY.key, false);
+		configuration.put(ConfigurationValues.MODEL_TIME_LIMIT.key, DEFAULT_TURN_LIMIT);
+		RLAgent sepiaAgent = new RLAgent(AGENT_PLAYER, Integer.MAX_VALUE, weights.clone());
+		Environment environment = new Environment(
+				new Agent[] { sepiaAgent, new CombatAgent(RLAgent.ENEMY_PLAYERNUM,
+						new String[] { String.valueOf(AGENT_PLAYER), "false", "false" }) },
+				new SimpleModel(map.createState(), 6, map.createStateCreator(), configuration), 6);
+
+		int[] sepia = new int[3];
+		long start = System.nanoTime();
+		for (int episode = 0; episode < episodes; episode++) {
+			System.arraycopy(weights, 0, sepiaAgent.getWeights(), 0, weights.length);
+			int won = sepiaAgent.getGamesWon();
+			environment.runEpisode();
+			sepia[0] += sepiaAgent.getGamesWon() - won;
+			sepia[1] += environment.getStepNumber();
+			sepia[2] += environment.getModel().getState().getView(AGENT_PLAYER)
+					.getUnitIds(AGENT_PLAYER).size();
+		}
+		double sepiaSeconds = (System.nanoTime() - start) / 1e9;
+
+		//the simulator with the same agent and weights
+		RLAgent simulatedAgent = new RLAgent(AGENT_PLAYER, Integer.MAX_VALUE, weights.clone());
+		CombatSimulator simulator = new CombatSimulator(map, 6);
+		int[] simulated = new int[3];
+		start = System.nanoTime();
+		for (int episode = 0; episode < episodes; episode++) {
+			System.arraycopy(weights, 0, simulatedAgent.getWeights(), 0, weights.length);
+			int won = simulatedAgent.getGamesWon();
+			simulator.playEpisode(simulatedAgent);
+			simulated[0] += simulatedAgent.getGamesWon() - won;
+			simulated[1] += simulator.getTurnNumber();
+			simulated[2] += simulator.getSurvivors();
+		}
+		double simulatedSeconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.println(String.format("%-10s %12s %12s %12s %14s", "", "learning wins",
+				"mean turns", "survivors", "games/second"));
+		printOutcome("SEPIA", sepia, sepiaAgent, episodes, sepiaSeconds);
+		printOutcome("simulator", simulated, simulatedAgent, episodes, simulatedSeconds);
+	}
+
+	//prints the outcome of the validation games of one engine
+	private static void printOutcome(String engine, int[] outcome, RLAgent agent, int episodes,
+			double seconds) {
+		System.out.println(String.format("%-10s %13s %12.1f %12.2f %14.1f", engine,
+				outcome[0] + "/" + learningGames(agent), outcome[1] / (double) episodes,
+				outcome[2] / (double) episodes, episodes / seconds));
+	}
+
+	//the number of games the agent played outside of evaluation mode, the only ones it counts wins of
+	private static int learningGames(RLAgent agent) {
+		int games = agent.getGameNumber() - 1;
+		return (games / 15) * 10 + Math.min(games % 15, 10);
+	}
+
+	//SEPIA's damage of an attack, which varies by up to half of the base damage either way
+	private int calculateDamage(CombatMap.FootmanTemplate attacker, CombatMap.FootmanTemplate defender) {
+		int damage = Math.max(attacker.basicAttack - defender.armor, 1) + attacker.piercingAttack;
+		return damage - random.nextInt() % ((damage + 2) / 2);
+	}
+
+	//the first of our footmen within the sight range of the given enemy, in the order SEPIA lists them
+	private int firstVisibleFootman(int enemy) {
+		int sightRange = map.getTemplate(unitPlayers[enemy]).sightRange;
+		for (int unit : footmanOrder) {
+			if (unitHealth[unit] > 0 && distance(enemy, unit) <= sightRange) {
+				return unit;
+			}
+		}
+		return NONE;
+	}
+
+	//moves the unit onto the free neighbouring tile closest to its target, stepping around units
+	//in its way by moving sideways when no closer tile is free
+	private boolean moveTowards(int unit, int target) {
+		int bestX = NONE;
+		int bestY = NONE;
+		int bestDistance = distance(unit, target) + 1;
+		int bestSquared = Integer.MAX_VALUE;
+		for (int direction = 0; direction < DIRECTION_X.length; direction++) {
+			int x = unitX[unit] + DIRECTION_X[direction];
+			int y = unitY[unit] + DIRECTION_Y[direction];
+			if (x < 0 || y < 0 || x >= map.getXExtent() || y >= map.getYExtent()
+					|| occupant[tile(x, y)] != NONE) {
+				continue;
+			}
+
+			//prefer the closest tile, then the one most directly towards the target
+			int dx = unitX[target] - x;
+			int dy = unitY[target] - y;
+			int distance = Math.max(Math.abs(dx), Math.abs(dy));
+			int squared = dx * dx + dy * dy;
+			if (distance < bestDistance || (distance == bestDistance && squared < bestSquared)) {
+				bestX = x;
+				bestY = y;
+				bestDistance = distance;
+				bestSquared = squared;
+			}
+		}
+
+		if (bestX == NONE || bestDistance > distance(unit, target)) {
+			return false;
+		}
+		occupant[tile(unitX[unit], unitY[unit])] = NONE;
+		unitX[unit] = bestX;
+		unitY[unit] = bestY;
+		occupant[tile(bestX, bestY)] = unit;
+		return true;
+	}
+
+	//the Chebyshev distance between two units
+	private int distance(int unit, int other) {
+		return GameState.chebyshevDistance(unitX[unit], unitY[unit], unitX[other], unitY[other]);
+	}
+
+	//the unit index of the given id, or -1 if there is no such unit
+	private int unitOf(int id) {
+		return id >= 0 && id < unitById.length ? unitById[id] : NONE;
+	}
+
+	//the index of the tile at the given position
+	private int tile(int x, int y) {
+		return y * map.getXExtent() + x;
+	}
+}
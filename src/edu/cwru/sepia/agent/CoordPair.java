@@ -3,39 +3,78 @@ package edu.cwru.sepia.agent;
 /**
  * A simple coordinate pair representing a point location in SEPIA.
  * 
+ * A pair never changes once created and is equal to, and hashes like, any other pair with the
+ * same coordinates, so it can be used as a key of hash based indexes. Where even a small object
+ * is too much, a point can instead be packed into a single long with pack and read back with
+ * unpackX and unpackY; the static helpers work on the coordinates directly.
+ * 
  * @author Shaun Howard, Matt Swartwout
- *
- * @param <T> - Any number type (best would be Double)
- * @param <U> - Any number type (best would be Double)
+ * 
  */
-public class CoordPair<T, U> {
+public final class CoordPair {
 	//first value in pair
-    private T x; 
-    
-    //second value in pair
-    private U y; 
-
-    public CoordPair(T x, U y) {
-        this.x = x;
-        this.y = y;
-    }
-
-    public void setX(T x) {
-        this.x = x;
-    }
-
-    public void setY(U y) {
-        this.y = y;
-    }
-
-    public T getX() {
-        return x;
-    }
-
-    public U getY() {
-        return y;
-    }
-    
+	private final int x;
+
+	//second value in pair
+	private final int y;
+
+	public CoordPair(int x, int y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	/**
+	 * Creates the pair of a packed point.
+	 * 
+	 * @param packed - the point as given by pack
+	 * @return the pair of the point
+	 */
+	public static CoordPair unpack(long packed) {
+		return new CoordPair(unpackX(packed), unpackY(packed));
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+
+	/**
+	 * @return this point packed into a long
+	 */
+	public long pack() {
+		return pack(x, y);
+	}
+
+	/**
+	 * Packs a point into a long, x in the upper and y in the lower 32 bits.
+	 * 
+	 * @param x - the x coordinate of the point
+	 * @param y - the y coordinate of the point
+	 * @return the packed point
+	 */
+	public static long pack(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param packed - a point as given by pack
+	 * @return the x coordinate of the point
+	 */
+	public static int unpackX(long packed) {
+		return (int) (packed >> 32);
+	}
+
+	/**
+	 * @param packed - a point as given by pack
+	 * @return the y coordinate of the point
+	 */
+	public static int unpackY(long packed) {
+		return (int) packed;
+	}
+
 	/**
 	 * Checks if two coordinates are adjacent
 	 * 
@@ -43,17 +82,38 @@ public class CoordPair<T, U> {
 	 * @param q The second coordinate pair
 	 * @return True, if p and q are adjacent
 	 */
-	public static boolean areAdjacent(CoordPair<Integer, Integer> p,
-			CoordPair<Integer, Integer> q) {
-		for (int i = p.getX() - 1; i <= p.getX() + 1; i++) {
-			for (int j = p.getY() - 1; j <= p.getY() + 1; j++) {
-				if (q.getX() == i && q.getY() == j) {
-					return true;
-				}
-			}
-		}
+	public static boolean areAdjacent(CoordPair p, CoordPair q) {
+		return areAdjacent(p.x, p.y, q.x, q.y);
+	}
 
-		return false;
+	/**
+	 * Checks if two points given by their coordinates are adjacent, that is, if q lies in
+	 * the 3x3 square centered on p.
+	 * 
+	 * @return True, if (px, py) and (qx, qy) are adjacent
+	 */
+	public static boolean areAdjacent(int px, int py, int qx, int qy) {
+		return Math.abs(px - qx) <= 1 && Math.abs(py - qy) <= 1;
+	}
+
+	/**
+	 * Calculates the Chebyshev distance between two points.
+	 * 
+	 * @param p - the first point to calculate distance from
+	 * @param q - the second point to calculate distance to
+	 * @return the distance between points p and q
+	 */
+	public static int chebyshevDistance(CoordPair p, CoordPair q) {
+		return chebyshevDistance(p.x, p.y, q.x, q.y);
+	}
+
+	/**
+	 * Calculates the Chebyshev distance between two points given by their coordinates.
+	 * 
+	 * @return the distance between points (px, py) and (qx, qy)
+	 */
+	public static int chebyshevDistance(int px, int py, int qx, int qy) {
+		return Math.max(Math.abs(px - qx), Math.abs(py - qy));
 	}
 
 	/**
@@ -62,15 +122,24 @@ public class CoordPair<T, U> {
 	 */
 	@Override
 	public boolean equals(Object obj) {
-		if (obj == null || !(obj instanceof CoordPair)) {
-            return false;
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof CoordPair)) {
+			return false;
 		}
-//        if (obj == this) {
-//            return true;
-//        }
-        
-        CoordPair<?, ?> pair = (CoordPair<?,?>) obj;
-        return x.equals(pair.getX()) && y.equals(pair.getY());
+
+		CoordPair pair = (CoordPair) obj;
+		return x == pair.x && y == pair.y;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * x + y;
 	}
 
-}
\ No newline at end of file
+	@Override
+	public String toString() {
+		return "(" + x + ", " + y + ")";
+	}
+}
@@ -0,0 +1,261 @@
+package edu.cwru.sepia.agent;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only binary log of every episode of a run, for offline analysis.
+ * 
+ * The file starts with a small header, after which every episode is a fixed size record:
+ * 
+ *	header: magic (int), format version (int), record size (int)
+ *	record: episode number (int), stream (int), steps (int), flags (int: 1 won, 2 evaluation
+ *	game), reward (double), epsilon (double), weight L2 norm (double), largest absolute weight
+ *	(double)
+ * 
+ * The stream tells apart the agents sharing a log, such as the workers of a parallel run, which
+ * each number their own episodes, so an episode is identified by its stream and number. Logs of
+ * the first format version, without streams, are still read with every episode in stream 0 but
+ * are not appended to.
+ * 
+ * All values are little-endian. Records are gathered in a direct buffer and written through
+ * the file channel whenever it fills up, so the agent only touches the disk every few thousand
+ * episodes, and the rest is written when the log is closed. Further runs append to the same
+ * file, which keeps its single header. Running this class prints a log as CSV.
+ * 
+ * Usage: EpisodeLog logFile
+ */
+public class EpisodeLog {
+
+	//identifies an episode log file, "RLEL"
+	private static final int MAGIC = 0x524C454C;
+	private static final int VERSION = 2;
+
+	//size of the header and of a record in bytes, and of a record of the first version
+	private static final int HEADER_SIZE = 3 * 4;
+	private static final int RECORD_SIZE = 4 * 4 + 4 * 8;
+	private static final int VERSION_1_RECORD_SIZE = 3 * 4 + 4 * 8;
+
+	//flags of a record
+	public static final int WON = 1;
+	public static final int EVALUATION = 2;
+
+	//how many records are gathered before they are written
+	private static final int BUFFERED_RECORDS = 1024;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFERED_RECORDS * RECORD_SIZE)
+			.order(ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * An episode read from a log.
+	 */
+	public static class Record {
+		public final int episode;
+		public final int stream;
+		public final int steps;
+		public final int flags;
+		public final double reward;
+		public final double epsilon;
+		public final double weightNorm;
+		public final double maxWeight;
+
+		public Record(int episode, int stream, int steps, int flags, double reward, double epsilon,
+				double weightNorm, double maxWeight) {
+			this.episode = episode;
+			this.stream = stream;
+			this.steps = steps;
+			this.flags = flags;
+			this.reward = reward;
+			this.epsilon = epsilon;
+			this.weightNorm = weightNorm;
+			this.maxWeight = maxWeight;
+		}
+
+		public boolean isWon() {
+			return (flags & WON) != 0;
+		}
+
+		public boolean isEvaluation() {
+			return (flags & EVALUATION) != 0;
+		}
+	}
+
+	/**
+	 * Opens a log for appending, writing the header if the file is new.
+	 * 
+	 * @param file - the log file
+	 * @throws IOException if the file cannot be opened or is not an episode log
+	 */
+	public EpisodeLog(File file) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (channel.size() == 0) {
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(RECORD_SIZE);
+		} else {
+			int version = readVersion(channel);
+			if (version != VERSION) {
+				channel.close();
+				throw new IOException(file + (version < 0 ? " is not an episode log."
+						: " is an episode log of version " + version + ", which is not appended to."));
+			}
+		}
+
+		//drop any partly written record at the end, left by a run that was killed
+		long records = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+		if (channel.size() > 0) {
+			channel.truncate(HEADER_SIZE + records * RECORD_SIZE);
+		}
+		channel.position(channel.size());
+	}
+
+	/**
+	 * Appends an episode.
+	 * 
+	 * @param episode - the number of the episode
+	 * @param stream - the stream of the agent playing the episode
+	 * @param steps - the number of steps the agent took during the episode
+	 * @param won - whether the agent won the episode
+	 * @param evaluation - whether the episode was an evaluation game
+	 * @param reward - the reward collected during the episode
+	 * @param epsilon - the exploration rate the episode was played with
+	 * @param weights - the weights after the episode
+	 * @throws IOException if the gathered records could not be written
+	 */
+	public synchronized void append(int episode, int stream, int steps, boolean won,
+			boolean evaluation, double reward, double epsilon, double[] weights) throws IOException {
+		double squares = 0;
+		double largest = 0;
+		for (double weight : weights) {
+			squares += weight * weight;
+			largest = Math.max(largest, Math.abs(weight));
+		}
+
+		if (buffer.remaining() < RECORD_SIZE) {
+			flush();
+		}
+		buffer.putInt(episode);
+		buffer.putInt(stream);
+		buffer.putInt(steps);
+		buffer.putInt((won ? WON : 0) | (evaluation ? EVALUATION : 0));
+		buffer.putDouble(reward);
+		buffer.putDouble(epsilon);
+		buffer.putDouble(Math.sqrt(squares));
+		buffer.putDouble(largest);
+	}
+
+	/**
+	 * Writes the gathered records to the file.
+	 * 
+	 * @throws IOException if the records could not be written
+	 */
+	public synchronized void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Writes the gathered records and closes the file.
+	 * 
+	 * @throws IOException if the records could not be written
+	 */
+	public synchronized void close() throws IOException {
+		if (!channel.isOpen()) {
+			return;
+		}
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads every complete record of a log.
+	 * 
+	 * @param file - the log file
+	 * @return the episodes of the log in the order they were written
+	 * @throws IOException if the file cannot be read or is not an episode log
+	 */
+	public static List<Record> read(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			int version = readVersion(channel);
+			if (version != 1 && version != VERSION) {
+				throw new IOException(file + " is not an episode log.");
+			}
+			int recordSize = version == 1 ? VERSION_1_RECORD_SIZE : RECORD_SIZE;
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.position(HEADER_SIZE);
+
+			List<Record> records = new ArrayList<Record>();
+			while (buffer.remaining() >= recordSize) {
+				int episode = buffer.getInt();
+				int stream = version == 1 ? 0 : buffer.getInt();
+				records.add(new Record(episode, stream, buffer.getInt(), buffer.getInt(),
+						buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+						buffer.getDouble()));
+			}
+			return records;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: EpisodeLog logFile");
+			return;
+		}
+
+		StringBuilder csv = new StringBuilder("episode,stream,steps,won,evaluation,reward,epsilon,"
+				+ "weightNorm,maxWeight\n");
+		for (Record record : read(new File(args[0]))) {
+			csv.append(record.episode).append(',').append(record.stream).append(',')
+					.append(record.steps).append(',')
+					.append(record.isWon()).append(',').append(record.isEvaluation()).append(',')
+					.append(record.reward).append(',').append(record.epsilon).append(',')
+					.append(record.weightNorm).append(',').append(record.maxWeight).append('\n');
+		}
+		System.out.print(csv);
+	}
+
+	//reads the format version from the header of a log, or -1 if it is not a log of a known
+	//version, leaving the channel's position as it was
+	private static int readVersion(FileChannel channel) throws IOException {
+		if (channel.size() < HEADER_SIZE) {
+			return -1;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining()) {
+			if (channel.read(header, header.position()) < 0) {
+				return -1;
+			}
+		}
+		header.flip();
+		if (header.getInt() != MAGIC) {
+			return -1;
+		}
+		int version = header.getInt();
+		int recordSize = header.getInt();
+		if (version == 1 && recordSize == VERSION_1_RECORD_SIZE
+				|| version == VERSION && recordSize == RECORD_SIZE) {
+			return version;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,214 @@
+package edu.cwru.sepia.agent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import edu.cwru.sepia.environment.Environment;
+
+/**
+ * Plays one training run after another with the same agent in the same JVM, so that runs
+ * after the first do not pay again for starting the JVM, loading SEPIA, parsing the map and
+ * warming up the JIT.
+ * 
+ * The runner creates the agent once and sets itself as the agent's run listener, so that the
+ * agent reports the end of a run instead of ending the program. Every run restarts the agent
+ * with its own episodes and options and plays in a fresh environment or simulator made from
+ * the already loaded map and seed, so a run gives the same result as the same run in a new
+ * JVM. Runs are played one at a time on a thread of the runner and complete their futures.
+ * 
+ * Usage: ExperimentRunner mapFile runs episodes [key=value ...]
+ * plays the same simulated run the given number of times and prints how long each took.
+ */
+public class ExperimentRunner {
+
+	//the seed of the environment or simulator of every run
+	private static final int SEED = 6;
+
+	/**
+	 * The outcome of a run.
+	 */
+	public static class RunResult {
+		public final int episodes;
+		public final int games;
+		public final int gamesWon;
+		public final double seconds;
+		public final double[] weights;
+
+		public RunResult(int episodes, int games, int gamesWon, double seconds, double[] weights) {
+			this.episodes = episodes;
+			this.games = games;
+			this.gamesWon = gamesWon;
+			this.seconds = seconds;
+			this.weights = weights;
+		}
+	}
+
+	/**
+	 * Plays the games of the runner's agent.
+	 */
+	private interface EpisodePlayer {
+
+		//resets the environment for a new run
+		void beginRun();
+
+		void playEpisode() throws InterruptedException;
+	}
+
+	private final RLAgent agent;
+	private final EpisodePlayer player;
+	private final ExecutorService executor;
+
+	//whether the agent finished its current run
+	private volatile boolean finished;
+
+	private ExperimentRunner(RLAgent agent, EpisodePlayer player) {
+		this.agent = agent;
+		this.player = player;
+		agent.setRunListener(new RunListener() {
+			@Override
+			public void runFinished(RLAgent agent) {
+				finished = true;
+			}
+		});
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "experiment-runner");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("Usage: ExperimentRunner mapFile runs episodes [key=value ...]");
+			return;
+		}
+
+		int runs = Integer.parseInt(args[1]);
+		int episodes = Integer.parseInt(args[2]);
+
+		//the agent takes the episodes, not to load weights and the options
+		String[] agentArguments = new String[args.length - 1];
+		agentArguments[0] = args[2];
+		agentArguments[1] = "false";
+		System.arraycopy(args, 3, agentArguments, 2, args.length - 3);
+		ExperimentRunner runner = forSimulator(CombatMap.load(args[0]), agentArguments);
+
+		Map<String, String> options = new HashMap<String, String>(runner.getAgent().getOptions());
+		try {
+			for (int run = 1; run <= runs; run++) {
+				RunResult result = runner.submit(episodes, options).get();
+				System.out.println(String.format("Run %d: %d of %d games won in %.2f seconds", run,
+						result.gamesWon, result.games, result.seconds));
+			}
+		} finally {
+			runner.close();
+		}
+	}
+
+	/**
+	 * Creates a runner playing the configured agent in SEPIA.
+	 * 
+	 * @param configuration - the loaded SEPIA configuration
+	 * @return the runner
+	 */
+	public static ExperimentRunner forSepia(final TrainingConfiguration configuration) {
+		final RLAgent agent = new RLAgent(configuration.getPlayerNumber(),
+				configuration.getAgentArguments());
+		return new ExperimentRunner(agent, new EpisodePlayer() {
+			private Environment environment;
+
+			@Override
+			public void beginRun() {
+				environment = configuration.createEnvironment(
+						new Agent[] { agent, configuration.createEnemyAgent() }, SEED);
+			}
+
+			@Override
+			public void playEpisode() throws InterruptedException {
+				environment.runEpisode();
+			}
+		});
+	}
+
+	/**
+	 * Creates a runner playing an agent in the combat simulator.
+	 * 
+	 * @param map - the loaded map
+	 * @param agentArguments - the arguments the agent is created with: episodes, loadWeights
+	 * and options
+	 * @return the runner
+	 */
+	public static ExperimentRunner forSimulator(final CombatMap map, String[] agentArguments) {
+		final RLAgent agent = new RLAgent(CombatSimulator.AGENT_PLAYER, agentArguments);
+		return new ExperimentRunner(agent, new EpisodePlayer() {
+			private CombatSimulator simulator;
+
+			@Override
+			public void beginRun() {
+				simulator = new CombatSimulator(map, SEED);
+			}
+
+			@Override
+			public void playEpisode() {
+				simulator.playEpisode(agent);
+			}
+		});
+	}
+
+	/**
+	 * Queues a run, which is played once the runs queued before it are done.
+	 * 
+	 * @param episodes - the number of learning episodes of the run
+	 * @param options - the key=value options of the agent for the run
+	 * @return the future outcome of the run
+	 */
+	public Future<RunResult> submit(final int episodes, final Map<String, String> options) {
+		return executor.submit(new Callable<RunResult>() {
+			@Override
+			public RunResult call() throws InterruptedException {
+				return play(episodes, options);
+			}
+		});
+	}
+
+	/**
+	 * Stops the runner once the queued runs are done.
+	 */
+	public void close() {
+		executor.shutdown();
+	}
+
+	/**
+	 * @return the agent of the runner
+	 */
+	public RLAgent getAgent() {
+		return agent;
+	}
+
+	//restarts the agent and plays until it reports the end of the run
+	private RunResult play(int episodes, Map<String, String> options) throws InterruptedException {
+		agent.restart(episodes, options);
+		player.beginRun();
+		finished = false;
+
+		long start = System.nanoTime();
+		while (!finished) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			player.playEpisode();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		return new RunResult(episodes, agent.getGameNumber(), agent.getGamesWon(), seconds,
+				agent.getWeights().clone());
+	}
+}
@@ -0,0 +1,292 @@
+package edu.cwru.sepia.agent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One or more features of the footman/enemy pairs of a FeatureMatrix.
+ * 
+ * An extractor declares which of the values shared by the features it reads, so the matrix
+ * only computes those needed by its features, and then fills in its features for the pairs of
+ * one footman with every enemy at once. Each of the nine standard features of the agent has an
+ * extractor of its own, so other feature sets can be put together from them by name, while
+ * STANDARD_FEATURES fills in all nine in a single pass over the pairs, which is what the agent
+ * uses unless told otherwise.
+ */
+public abstract class FeatureExtractor {
+
+	//the pairwise distances along with the closest enemy distance of each footman
+	public static final int DISTANCES = 1;
+
+	//the pairwise adjacency along with the number of enemies adjacent to each footman
+	public static final int ADJACENCY = 2;
+
+	//the target of each footman and the number of footmen attacking each enemy
+	public static final int ATTACKS = 4;
+
+	//the value of the footmen staying alive
+	public static final int ALIVE_VALUE = 8;
+
+	private final String name;
+	private final int width;
+	private final int requirements;
+
+	/**
+	 * @param name - the name the feature is selected by
+	 * @param requirements - the shared values the feature reads, a combination of the flags above
+	 */
+	protected FeatureExtractor(String name, int requirements) {
+		this(name, 1, requirements);
+	}
+
+	/**
+	 * @param name - the name the features are selected by
+	 * @param width - the number of features filled in
+	 * @param requirements - the shared values the features read, a combination of the flags above
+	 */
+	protected FeatureExtractor(String name, int width, int requirements) {
+		this.name = name;
+		this.width = width;
+		this.requirements = requirements;
+	}
+
+	/**
+	 * Fills in the features of this extractor for the pairs of one footman of the matrix with
+	 * every enemy.
+	 * 
+	 * @param matrix - the matrix being computed, holding the shared values this feature requires
+	 * @param state - the game state the matrix is computed for
+	 * @param footman - the index of the footman in the matrix
+	 * @param features - the features of all pairs, laid out as the matrix's offsets give
+	 * @param feature - the index of the first feature of this extractor within each pair's features
+	 */
+	public abstract void extract(FeatureMatrix matrix, GameState state, int footman,
+			double[] features, int feature);
+
+	//basic getters
+
+	public String getName() {
+		return name;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getRequirements() {
+		return requirements;
+	}
+
+	// first feature value is always 1 to remain non-zero
+	public static final FeatureExtractor CONSTANT = new FeatureExtractor("constant", 0) {
+		@Override
+		public void extract(FeatureMatrix matrix, GameState state, int footman, double[] features,
+				int feature) {
+			int offset = matrix.offset(footman, 0) + feature;
+			for (int j = 0; j < matrix.getEnemyCount(); j++, offset += matrix.getFeatureCount()) {
+				features[offset] = 1;
+			}
+		}
+	};
+
+	// second feature value is the health of the given footman
+	public static final FeatureExtractor FOOTMAN_HEALTH = new FeatureExtractor("footmanHealth", 0) {
+		@Override
+		public void extract(FeatureMatrix matrix, GameState state, int footman, double[] features,
+				int feature) {
+			int footmanHealth = state.getHealth(matrix.getFootmanSlot(footman));
+			int offset = matrix.offset(footman, 0) + feature;
+			for (int j = 0; j < matrix.getEnemyCount(); j++, offset += matrix.getFeatureCount()) {
+				features[offset] = footmanHealth;
+			}
+		}
+	};
+
+	// third feature value is the health of the given footman's enemy target, but negative
+	public static final FeatureExtractor ENEMY_HEALTH = new FeatureExtractor("enemyHealth", 0) {
+		@Override
+		public void extract(FeatureMatrix matrix, GameState state, int footman, double[] features,
+				int feature) {
+			int offset = matrix.offset(footman, 0) + feature;
+			for (int j = 0; j < matrix.getEnemyCount(); j++, offset += matrix.getFeatureCount()) {
+				features[offset] = -state.getHealth(matrix.getEnemySlot(j));
+			}
+		}
+	};
+
+	// fourth feature is valued from this footman attacking the closest enemy footman
+	public static final FeatureExtractor CLOSEST_ENEMY = new FeatureExtractor("closestEnemy",
+			DISTANCES | ATTACKS) {
+		@Override
+		public void extract(FeatureMatrix matrix, GameState state, int footman, double[] features,
+				int feature) {
+			boolean hasTarget = matrix.getTarget(footman) != AttackAction.NO_TARGET;
+			int offset = matrix.offset(footman, 0) + feature;
+			for (int j = 0; j < matrix.getEnemyCount(); j++, offset += matrix.getFeatureCount()) {
+				double value;
+				if (matrix.getDistance(footman, j) <= matrix.getClosestDistance(footman)) {
+					value = 100;
+				} else if (!hasTarget) {
+					value = -100;
+				} else {
+					value = 50;
+				}
+				features[offset] = value;
+			}
+		}
+	};
+
+	// fifth feature is a multiple of how many enemies are attacking the given footman
+	public static final FeatureExtractor SHARED_TARGET = new FeatureExtractor("sharedTarget",
+			ATTACKS) {
+		@Override
+		public void extract(FeatureMatrix matrix, GameState state, int footman, double[] features,
+				int feature) {
+			int targetIndex = matrix.getTargetIndex(footman);
+			int otherAttacks = matrix.getOtherAttacks(footman);
+			int offset = matrix.offset(footman, 0) + feature;
+			for (int j = 0; j < matrix.getEnemyCount(); j++, offset += matrix.getFeatureCount()) {
+				int sameTarget = matrix.getAttackerCount(j) - (targetIndex == j ? 1 : 0);
+				features[offset] = sameTarget * 10
+						+ (otherAttacks - sameTarget) * 0.1;
+			}
+		}
+	};
+
+	// sixth feature values determining the ratio of hit-points of footman to target enemy
+	public static final FeatureExtractor HEALTH_RATIO = new FeatureExtractor("healthRatio", 0) {
+		@Override
+		public void extract(FeatureMatrix matrix, GameState state, int footman, double[] features,
+				int feature) {
+			int footmanHealth = state.getHealth(matrix.getFootmanSlot(footman));
+			int offset = matrix.offset(footman, 0) + feature;
+			for (int j = 0; j < matrix.getEnemyCount(); j++, offset += matrix.getFeatureCount()) {
+				int enemyHealth = state.getHealth(matrix.getEnemySlot(j));
+				features[offset] = footmanHealth / Math.max(enemyHealth, 1);
+			}
+		}
+	};
+
+	// seventh feature values footmen staying alive
+	public static final FeatureExtractor FOOTMEN_ALIVE = new FeatureExtractor("footmenAlive",
+			ALIVE_VALUE) {
+		@Override
+		public void extract(FeatureMatrix matrix, GameState state, int footman, double[] features,
+				int feature) {
+			double aliveValue = matrix.getAliveValue();
+			int offset = matrix.offset(footman, 0) + feature;
+			for (int j = 0; j < matrix.getEnemyCount(); j++, offset += matrix.getFeatureCount()) {
+				features[offset] = aliveValue;
+			}
+		}
+	};
+
+	// eighth feature is based on whether the target is adjacent for attacking
+	public static final FeatureExtractor ADJACENT_TARGET = new FeatureExtractor("adjacentTarget",
+			ADJACENCY) {
+		@Override
+		public void extract(FeatureMatrix matrix, GameState state, int footman, double[] features,
+				int feature) {
+			int offset = matrix.offset(footman, 0) + feature;
+			for (int j = 0; j < matrix.getEnemyCount(); j++, offset += matrix.getFeatureCount()) {
+				features[offset] = matrix.isAdjacent(footman, j) ? 10 : -10;
+			}
+		}
+	};
+
+	// ninth feature values how many enemies can currently attack the given footman
+	public static final FeatureExtractor ADJACENT_ENEMIES = new FeatureExtractor("adjacentEnemies",
+			ADJACENCY) {
+		@Override
+		public void extract(FeatureMatrix matrix, GameState state, int footman, double[] features,
+				int feature) {
+			int adjEnemyCount = matrix.getAdjacentEnemyCount(footman);
+			double value = adjEnemyCount <= 2 ? adjEnemyCount * 10 : -adjEnemyCount * 10;
+			int offset = matrix.offset(footman, 0) + feature;
+			for (int j = 0; j < matrix.getEnemyCount(); j++, offset += matrix.getFeatureCount()) {
+				features[offset] = value;
+			}
+		}
+	};
+
+	// the nine features above, in their order, filled in together
+	public static final FeatureExtractor STANDARD_FEATURES = new FeatureExtractor("standard", 9,
+			DISTANCES | ADJACENCY | ATTACKS | ALIVE_VALUE) {
+		@Override
+		public void extract(FeatureMatrix matrix, GameState state, int footman, double[] features,
+				int feature) {
+			int footmanHealth = state.getHealth(matrix.getFootmanSlot(footman));
+			boolean hasTarget = matrix.getTarget(footman) != AttackAction.NO_TARGET;
+			int targetIndex = matrix.getTargetIndex(footman);
+			int otherAttacks = matrix.getOtherAttacks(footman);
+			int closestDistance = matrix.getClosestDistance(footman);
+			double aliveValue = matrix.getAliveValue();
+			int adjEnemyCount = matrix.getAdjacentEnemyCount(footman);
+			double adjacentValue = adjEnemyCount <= 2 ? adjEnemyCount * 10 : -adjEnemyCount * 10;
+
+			int offset = matrix.offset(footman, 0) + feature;
+			for (int j = 0; j < matrix.getEnemyCount(); j++, offset += matrix.getFeatureCount()) {
+				int enemyHealth = state.getHealth(matrix.getEnemySlot(j));
+				features[offset] = 1;
+				features[offset + 1] = footmanHealth;
+				features[offset + 2] = -enemyHealth;
+				if (matrix.getDistance(footman, j) <= closestDistance) {
+					features[offset + 3] = 100;
+				} else if (!hasTarget) {
+					features[offset + 3] = -100;
+				} else {
+					features[offset + 3] = 50;
+				}
+				int sameTarget = matrix.getAttackerCount(j) - (targetIndex == j ? 1 : 0);
+				features[offset + 4] = sameTarget * 10 + (otherAttacks - sameTarget) * 0.1;
+				features[offset + 5] = footmanHealth / Math.max(enemyHealth, 1);
+				features[offset + 6] = aliveValue;
+				features[offset + 7] = matrix.isAdjacent(footman, j) ? 10 : -10;
+				features[offset + 8] = adjacentValue;
+			}
+		}
+	};
+
+	//the features of RLAgent.getFeatureVector
+	public static final List<FeatureExtractor> STANDARD = Collections.unmodifiableList(
+			Arrays.asList(STANDARD_FEATURES));
+
+	//every extractor that can be selected by name
+	private static final List<FeatureExtractor> EXTRACTORS = Arrays.asList(STANDARD_FEATURES,
+			CONSTANT, FOOTMAN_HEALTH, ENEMY_HEALTH, CLOSEST_ENEMY, SHARED_TARGET, HEALTH_RATIO,
+			FOOTMEN_ALIVE, ADJACENT_TARGET, ADJACENT_ENEMIES);
+
+	/**
+	 * Finds an extractor by its name.
+	 * 
+	 * @param name - the name of the extractor
+	 * @return the extractor
+	 * @throws IllegalArgumentException if there is no extractor of the name
+	 */
+	public static FeatureExtractor forName(String name) {
+		for (FeatureExtractor extractor : EXTRACTORS) {
+			if (extractor.getName().equals(name)) {
+				return extractor;
+			}
+		}
+		throw new IllegalArgumentException("There is no feature named " + name + ".");
+	}
+
+	/**
+	 * Selects extractors by a comma separated list of their names.
+	 * 
+	 * @param names - the names of the extractors, such as "standard" or "constant,footmanHealth"
+	 * @return the extractors in the given order
+	 */
+	public static List<FeatureExtractor> parse(String names) {
+		List<FeatureExtractor> extractors = new ArrayList<FeatureExtractor>();
+		for (String name : names.split(",")) {
+			if (!name.trim().isEmpty()) {
+				extractors.add(forName(name.trim()));
+			}
+		}
+		return extractors;
+	}
+}
@@ -0,0 +1,361 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the feature vectors of every footman/enemy pair of a game state in one batch.
+ * 
+ * Each feature is filled in by a FeatureExtractor. The values shared by the features, the
+ * pairwise distances, the closest enemy distance of each footman, the number of enemies
+ * adjacent to each footman and the number of footmen attacking each enemy, are computed once
+ * per state and only when one of the extractors requires them, after which every extractor
+ * fills in its feature for all pairs without rescanning the enemies. By default the features
+ * are the same as those of RLAgent.getFeatureVector. They are written into a flat array laid
+ * out as [footman][enemy][feature], which is reused between calls.
+ */
+public class FeatureMatrix {
+
+	//the extractors of the features, in order, the number of features they fill in and the
+	//shared values they require
+	private final FeatureExtractor[] extractors;
+	private final int featureCount;
+	private final int requirements;
+
+	//number of footmen and enemies of the last computed state
+	private int footmanCount = 0;
+	private int enemyCount = 0;
+
+	//the state slots of the footmen and enemies of the last computed state
+	private int[] footmanSlots = new int[0];
+	private int[] enemySlots = new int[0];
+
+	//the features of all pairs, [footman][enemy][feature]
+	private double[] features = new double[0];
+
+	//Chebyshev distance and adjacency of all pairs, [footman][enemy]
+	private int[] distances = new int[0];
+	private boolean[] adjacent = new boolean[0];
+
+	//closest enemy distance and number of adjacent enemies, indexed by footman
+	private int[] closestDistance = new int[0];
+	private int[] adjacentEnemyCount = new int[0];
+
+	//the target id, the target's enemy index and the planned attacks of the other footmen,
+	//indexed by footman
+	private int[] targets = new int[0];
+	private int[] targetIndices = new int[0];
+	private int[] otherAttacks = new int[0];
+
+	//number of planned attacks on each enemy, indexed by enemy
+	private int[] attackerCount = new int[0];
+
+	//the value of the footmen staying alive, shared by all pairs
+	private double aliveValue;
+
+	//enemy index of each state slot, -1 for units that are not enemies of the matrix
+	private int[] enemyIndexBySlot = new int[0];
+
+	/**
+	 * Creates a matrix of the standard features.
+	 */
+	public FeatureMatrix() {
+		this(FeatureExtractor.STANDARD);
+	}
+
+	/**
+	 * Creates a matrix of the given features.
+	 * 
+	 * @param extractors - the extractors of the features, in order
+	 */
+	public FeatureMatrix(List<FeatureExtractor> extractors) {
+		this.extractors = extractors.toArray(new FeatureExtractor[extractors.size()]);
+		int count = 0;
+		int required = 0;
+		for (FeatureExtractor extractor : this.extractors) {
+			count += extractor.getWidth();
+			required |= extractor.getRequirements();
+		}
+		this.featureCount = count;
+		this.requirements = required;
+	}
+
+	/**
+	 * Computes the feature vectors of all footman/enemy pairs of the given state.
+	 * 
+	 * @param state - the game state to get the features of
+	 * @param attack - the attack actions in reference to unit ids
+	 */
+	public void compute(GameState state, AttackAction attack) {
+		footmanCount = state.getFootmanCount();
+		enemyCount = state.getEnemyCount();
+		ensureCapacity(state);
+		for (int i = 0; i < footmanCount; i++) {
+			footmanSlots[i] = state.getFootmanSlot(i);
+		}
+		for (int j = 0; j < enemyCount; j++) {
+			enemySlots[j] = state.getEnemySlot(j);
+		}
+		computeFeatures(state, attack, true);
+	}
+
+	/**
+	 * Computes the feature vector of a single footman/enemy pair of the given state, which
+	 * then is the only pair of the matrix. The features still take every unit of the state
+	 * into account.
+	 * 
+	 * @param state - the game state to get the features of
+	 * @param attack - the attack actions in reference to unit ids
+	 * @param footmanSlot - the slot of the footman
+	 * @param enemySlot - the slot of the enemy
+	 */
+	public void computePair(GameState state, AttackAction attack, int footmanSlot, int enemySlot) {
+		footmanCount = 1;
+		enemyCount = 1;
+		ensureCapacity(state);
+		footmanSlots[0] = footmanSlot;
+		enemySlots[0] = enemySlot;
+		computeFeatures(state, attack, false);
+	}
+
+	//computes the shared values the extractors require, then every feature of every pair,
+	//taking the closest and adjacent enemies from the state unless the matrix holds all enemies
+	private void computeFeatures(GameState state, AttackAction attack, boolean allEnemies) {
+		//index the enemies by their slot so attack targets can be found
+		Arrays.fill(enemyIndexBySlot, -1);
+		for (int j = 0; j < enemyCount; j++) {
+			enemyIndexBySlot[enemySlots[j]] = j;
+		}
+
+		if ((requirements & FeatureExtractor.ATTACKS) != 0) {
+			//how many footmen plan to attack each enemy
+			for (int j = 0; j < enemyCount; j++) {
+				attackerCount[j] = attack.getAttackerCountBySlot(state, enemySlots[j]);
+			}
+
+			//the target of each footman and every planned attack of another footman
+			for (int i = 0; i < footmanCount; i++) {
+				targets[i] = attack.getTargetBySlot(state, footmanSlots[i]);
+				targetIndices[i] = enemyIndex(state, targets[i]);
+				otherAttacks[i] = attack.size() - (targets[i] == AttackAction.NO_TARGET ? 0 : 1);
+			}
+		}
+
+		if ((requirements & FeatureExtractor.ALIVE_VALUE) != 0) {
+			aliveValue = 0;
+			for (int i = 0; i < state.getFootmanCount(); i++) {
+				aliveValue += state.getHealth(state.getFootmanSlot(i)) > 0 ? 10 : 0.1;
+			}
+		}
+
+		//precompute the distance matrix along with the closest distance and adjacent count per footman
+		if ((requirements & (FeatureExtractor.DISTANCES | FeatureExtractor.ADJACENCY)) != 0) {
+			for (int i = 0; i < footmanCount; i++) {
+				int footmanSlot = footmanSlots[i];
+				int fx = state.getX(footmanSlot);
+				int fy = state.getY(footmanSlot);
+				int closest = Integer.MAX_VALUE;
+				int adjacentCount = 0;
+				for (int j = 0; j < enemyCount; j++) {
+					int enemySlot = enemySlots[j];
+					int ex = state.getX(enemySlot);
+					int ey = state.getY(enemySlot);
+					int pair = i * enemyCount + j;
+
+					distances[pair] = GameState.chebyshevDistance(fx, fy, ex, ey);
+					adjacent[pair] = GameState.isAdjacent(fx, fy, ex, ey);
+					closest = Math.min(closest, distances[pair]);
+					if (adjacent[pair]) {
+						adjacentCount++;
+					}
+				}
+				if (allEnemies) {
+					closestDistance[i] = closest;
+					adjacentEnemyCount[i] = adjacentCount;
+				} else {
+					closestDistance[i] = state.getNearestEnemyDistance(footmanSlot);
+					adjacentEnemyCount[i] = state.getAdjacentEnemyCount(footmanSlot);
+				}
+			}
+		}
+
+		//fill in every feature of the pairs of one footman at a time
+		for (int i = 0; i < footmanCount; i++) {
+			int feature = 0;
+			for (FeatureExtractor extractor : extractors) {
+				extractor.extract(this, state, i, features, feature);
+				feature += extractor.getWidth();
+			}
+		}
+	}
+
+	//basic getters
+
+	public int getFootmanCount() {
+		return footmanCount;
+	}
+
+	public int getEnemyCount() {
+		return enemyCount;
+	}
+
+	public int getFeatureCount() {
+		return featureCount;
+	}
+
+	public double getAliveValue() {
+		return aliveValue;
+	}
+
+	/**
+	 * @param footman - the index of the footman in the matrix
+	 * @return the state slot of the footman
+	 */
+	public int getFootmanSlot(int footman) {
+		return footmanSlots[footman];
+	}
+
+	/**
+	 * @param enemy - the index of the enemy in the matrix
+	 * @return the state slot of the enemy
+	 */
+	public int getEnemySlot(int enemy) {
+		return enemySlots[enemy];
+	}
+
+	/**
+	 * @param footman - the index of the footman in the matrix
+	 * @param enemy - the index of the enemy in the matrix
+	 * @return the Chebyshev distance between the footman and the enemy
+	 */
+	public int getDistance(int footman, int enemy) {
+		return distances[footman * enemyCount + enemy];
+	}
+
+	/**
+	 * @param footman - the index of the footman in the matrix
+	 * @return the distance of the closest enemy of the footman
+	 */
+	public int getClosestDistance(int footman) {
+		return closestDistance[footman];
+	}
+
+	/**
+	 * @param footman - the index of the footman in the matrix
+	 * @param enemy - the index of the enemy in the matrix
+	 * @return whether the footman and the enemy are adjacent
+	 */
+	public boolean isAdjacent(int footman, int enemy) {
+		return adjacent[footman * enemyCount + enemy];
+	}
+
+	/**
+	 * @param footman - the index of the footman in the matrix
+	 * @return the number of enemies adjacent to the footman
+	 */
+	public int getAdjacentEnemyCount(int footman) {
+		return adjacentEnemyCount[footman];
+	}
+
+	/**
+	 * @param footman - the index of the footman in the matrix
+	 * @return the id of the footman's target, or NO_TARGET if it has none
+	 */
+	public int getTarget(int footman) {
+		return targets[footman];
+	}
+
+	/**
+	 * @param footman - the index of the footman in the matrix
+	 * @return the enemy index of the footman's target, or -1 if it has none
+	 */
+	public int getTargetIndex(int footman) {
+		return targetIndices[footman];
+	}
+
+	/**
+	 * @param footman - the index of the footman in the matrix
+	 * @return the number of planned attacks of the other footmen
+	 */
+	public int getOtherAttacks(int footman) {
+		return otherAttacks[footman];
+	}
+
+	/**
+	 * @param enemy - the index of the enemy in the matrix
+	 * @return the number of footmen planning to attack the enemy
+	 */
+	public int getAttackerCount(int enemy) {
+		return attackerCount[enemy];
+	}
+
+	/**
+	 * @return the features of all pairs, laid out as [footman][enemy][feature]
+	 */
+	public double[] getFeatures() {
+		return features;
+	}
+
+	/**
+	 * Finds where the features of a pair start in the feature array.
+	 * 
+	 * @param footman - the index of the footman in the matrix
+	 * @param enemy - the index of the enemy in the matrix
+	 * @return the offset of the pair's first feature
+	 */
+	public int offset(int footman, int enemy) {
+		return (footman * enemyCount + enemy) * featureCount;
+	}
+
+	/**
+	 * Copies the features of a pair into a new feature vector.
+	 * 
+	 * @param footman - the index of the footman in the matrix
+	 * @param enemy - the index of the enemy in the matrix
+	 * @return the feature vector of the pair
+	 */
+	public double[] getFeatureVector(int footman, int enemy) {
+		int offset = offset(footman, enemy);
+		return Arrays.copyOfRange(features, offset, offset + featureCount);
+	}
+
+	/**
+	 * Finds the index of an enemy among the enemies of the matrix.
+	 * 
+	 * @param state - the state the features were last computed for
+	 * @param id - the id of the unit
+	 * @return the index of the enemy, or -1 if the unit is not an enemy of the matrix
+	 */
+	public int enemyIndex(GameState state, int id) {
+		int slot = state.slotOf(id);
+		return slot >= 0 ? enemyIndexBySlot[slot] : -1;
+	}
+
+	//grows the buffers to fit the given state
+	private void ensureCapacity(GameState state) {
+		int pairs = footmanCount * enemyCount;
+		if (features.length < pairs * featureCount) {
+			features = new double[pairs * featureCount];
+		}
+		if (distances.length < pairs) {
+			distances = new int[pairs];
+			adjacent = new boolean[pairs];
+		}
+		if (footmanSlots.length < footmanCount) {
+			footmanSlots = new int[footmanCount];
+			closestDistance = new int[footmanCount];
+			adjacentEnemyCount = new int[footmanCount];
+			targets = new int[footmanCount];
+			targetIndices = new int[footmanCount];
+			otherAttacks = new int[footmanCount];
+		}
+		if (enemySlots.length < enemyCount) {
+			enemySlots = new int[enemyCount];
+			attackerCount = new int[enemyCount];
+		}
+		int slots = state.getFootmanCount() + state.getEnemyCount();
+		if (enemyIndexBySlot.length < slots) {
+			enemyIndexBySlot = new int[slots];
+		}
+	}
+}
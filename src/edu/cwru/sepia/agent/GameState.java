@@ -1,9 +1,6 @@
 package edu.cwru.sepia.agent;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * A game state to track all necessary variables for Q-learning in the SEPIA game engine.
@@ -11,79 +8,372 @@ import java.util.Map;
  * 
  * This simply serves as a container to all of the SEPIA values necessary to implement learning to defeat enemy footmen.
  * 
+ * Units are stored in dense primitive columns (id, health, x, y) indexed by a compact slot number,
+ * so a state can be cleared and refilled every step and copied with System.arraycopy
+ * without boxing or allocating any collections.
+ * 
+ * A state refilled against a baseline (the prior state) counts the units that were hurt or died
+ * as the units are added, so significant events can be detected without comparing every unit
+ * of the two states afterwards.
+ * 
+ * Nearest enemy and adjacency queries are answered by a spatial grid over the map extent,
+ * built from the units the first time it is needed after the state changed.
+ * 
  * @author Shaun Howard, Matt Swartwout
  */
 public class GameState {
-	
-	//footmen and enemys from the state
-	private List<Integer> footmen = new ArrayList<Integer>();
-	private List<Integer> enemyFootmen = new ArrayList<Integer>();
-	
-	//health of all the units, indexed by id
-	private Map<Integer, Integer> unitHealth = new HashMap<Integer, Integer>();
-	
-	//locations of all the units as coordinate pairs, indexed by id
-	private Map<Integer, CoordPair<Integer, Integer>> unitLocations = new HashMap<Integer, CoordPair<Integer, Integer>>();
-	
+
+	//default number of unit slots, enough for the 10v10 map
+	private static final int DEFAULT_CAPACITY = 32;
+
+	//marks an unused entry of the id to slot index
+	private static final int NO_SLOT = -1;
+
+	//unit columns, indexed by slot
+	private int[] unitIds;
+	private int[] unitHealth;
+	private int[] unitX;
+	private int[] unitY;
+	private int unitCount = 0;
+
+	//slots of the footmen and enemies from the state
+	private int[] footmanSlots;
+	private int footmanCount = 0;
+	private int[] enemySlots;
+	private int enemyCount = 0;
+
+	//slot of each unit, indexed by id
+	private int[] slotById = new int[0];
+
+	//the state changes are recorded against while units are added, null when not tracking
+	//changes, and its number of footmen and enemies, copied as it may be reused afterwards
+	private GameState baseline = null;
+	private int baselineFootmen = 0;
+	private int baselineEnemies = 0;
+
+	//number of units that lost health since the baseline
+	private int hurtCount = 0;
+
+	//number of footmen and enemies that were also in the baseline
+	private int survivingFootmen = 0;
+	private int survivingEnemies = 0;
+
 	//track the number of footmen dead
 	public int footmenDeadCount = 0;
-	
-	//A basic game state constructor from units, health, and locations
-	public GameState(List<Integer> footmen, List<Integer> enemyFootmen, Map<Integer, Integer> unitHealth, Map<Integer, CoordPair<Integer, Integer>> unitLocations) {
-		this.footmen = new ArrayList<Integer>(footmen);
-		this.enemyFootmen = new ArrayList<Integer>(enemyFootmen);
-		this.unitHealth = new HashMap<Integer, Integer>(unitHealth);
-		this.unitLocations = new HashMap<Integer, CoordPair<Integer, Integer>>(unitLocations);
+
+	//the size of the map and the grid index of the units, built when first needed
+	private int xExtent = 0;
+	private int yExtent = 0;
+	private SpatialGrid grid = null;
+	private boolean gridBuilt = false;
+
+	//distance of each unit to its nearest enemy, indexed by slot, -1 until found with the grid
+	private int[] nearestEnemyDistance = new int[0];
+
+	//counts the changes of the units and map of this state, so that values derived from the
+	//state can tell whether it changed since
+	private int version = 0;
+
+	//An empty game state with room for the default number of units
+	public GameState() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	//An empty game state with room for the given number of units
+	public GameState(int capacity) {
+		capacity = Math.max(capacity, 1);
+		unitIds = new int[capacity];
+		unitHealth = new int[capacity];
+		unitX = new int[capacity];
+		unitY = new int[capacity];
+		footmanSlots = new int[capacity];
+		enemySlots = new int[capacity];
 	}
 
 	//A copy constructor
 	public GameState(GameState state) {
-		this.footmen = new ArrayList<Integer>(state.getFootmen());
-		this.enemyFootmen = new ArrayList<Integer>(state.getEnemyFootmen());
-		this.unitHealth = new HashMap<Integer, Integer>(state.getUnitHealth());
-		this.unitLocations = new HashMap<Integer, CoordPair<Integer, Integer>>(state.getUnitLocations());
+		this(state.unitIds.length);
+		copyFrom(state);
+	}
+
+	/**
+	 * Copies the given state into this one, reusing this state's arrays when they are large enough.
+	 * 
+	 * @param state - the state to copy
+	 */
+	public void copyFrom(GameState state) {
+		ensureCapacity(state.unitCount);
+		ensureIdCapacity(state.slotById.length - 1);
+
+		clearIdIndex();
+		System.arraycopy(state.unitIds, 0, unitIds, 0, state.unitCount);
+		System.arraycopy(state.unitHealth, 0, unitHealth, 0, state.unitCount);
+		System.arraycopy(state.unitX, 0, unitX, 0, state.unitCount);
+		System.arraycopy(state.unitY, 0, unitY, 0, state.unitCount);
+		System.arraycopy(state.footmanSlots, 0, footmanSlots, 0, state.footmanCount);
+		System.arraycopy(state.enemySlots, 0, enemySlots, 0, state.enemyCount);
+		unitCount = state.unitCount;
+		footmanCount = state.footmanCount;
+		enemyCount = state.enemyCount;
+		footmenDeadCount = state.footmenDeadCount;
+		xExtent = state.xExtent;
+		yExtent = state.yExtent;
+		gridBuilt = false;
+		version++;
+		resetChanges(null);
+
+		for (int slot = 0; slot < unitCount; slot++) {
+			slotById[unitIds[slot]] = slot;
+		}
+	}
+
+	/**
+	 * Removes all units from this state so it can be refilled for the next step.
+	 */
+	public void clear() {
+		clear(null);
+	}
+
+	/**
+	 * Removes all units from this state so it can be refilled for the next step, recording
+	 * the changes of the units added afterwards against the given baseline state.
+	 * The baseline is only read while units are added and may be reused once they are.
+	 * 
+	 * @param baseline - the state to record changes against, or null to not track changes
+	 */
+	public void clear(GameState baseline) {
+		clearIdIndex();
+		unitCount = 0;
+		footmanCount = 0;
+		enemyCount = 0;
+		footmenDeadCount = 0;
+		gridBuilt = false;
+		version++;
+		resetChanges(baseline);
+	}
+
+	/**
+	 * Sets the size of the map the units of this state are on.
+	 * 
+	 * @param xExtent - the width of the map
+	 * @param yExtent - the height of the map
+	 */
+	public void setExtent(int xExtent, int yExtent) {
+		this.xExtent = xExtent;
+		this.yExtent = yExtent;
+		gridBuilt = false;
+		version++;
+	}
+
+	/**
+	 * Gets the spatial grid index of the units of this state, building it if the state
+	 * changed since it was last built.
+	 * 
+	 * @return the grid index of the units
+	 */
+	public SpatialGrid getGrid() {
+		if (grid == null) {
+			grid = new SpatialGrid();
+		}
+		if (!gridBuilt) {
+			grid.build(this, xExtent, yExtent);
+			if (nearestEnemyDistance.length < unitCount) {
+				nearestEnemyDistance = new int[unitIds.length];
+			}
+			Arrays.fill(nearestEnemyDistance, 0, unitCount, -1);
+			gridBuilt = true;
+		}
+		return grid;
+	}
+
+	/**
+	 * Adds one of our footmen to the state.
+	 * 
+	 * @return the slot of the new footman
+	 */
+	public int addFootman(int id, int health, int x, int y) {
+		int slot = addUnit(id, health, x, y);
+		footmanSlots[footmanCount++] = slot;
+		if (baseline != null && baseline.slotOf(id) != NO_SLOT) {
+			survivingFootmen++;
+		}
+		return slot;
+	}
+
+	/**
+	 * Adds an enemy footman to the state.
+	 * 
+	 * @return the slot of the new enemy
+	 */
+	public int addEnemy(int id, int health, int x, int y) {
+		int slot = addUnit(id, health, x, y);
+		enemySlots[enemyCount++] = slot;
+		if (baseline != null && baseline.slotOf(id) != NO_SLOT) {
+			survivingEnemies++;
+		}
+		return slot;
+	}
+
+	//basic getters
+
+	public int getUnitCount() {
+		return unitCount;
 	}
 
-	//basic getters and setters
-	
-	public List<Integer> getFootmen() {
-		return footmen;
+	public int getFootmanCount() {
+		return footmanCount;
 	}
 
-	public List<Integer> getEnemyFootmen() {
-		return enemyFootmen;
+	public int getEnemyCount() {
+		return enemyCount;
 	}
 
-	public Map<Integer, Integer> getUnitHealth() {
-		return unitHealth;
+	/**
+	 * @return a number that changes whenever units are added to or removed from this state
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	//the slot of the i-th footman
+	public int getFootmanSlot(int i) {
+		return footmanSlots[i];
+	}
+
+	//the slot of the i-th enemy
+	public int getEnemySlot(int i) {
+		return enemySlots[i];
 	}
 
-	public Map<Integer, CoordPair<Integer, Integer>> getUnitLocations() {
-		return unitLocations;
+	public int getUnitId(int slot) {
+		return unitIds[slot];
 	}
-	
+
+	public int getHealth(int slot) {
+		return unitHealth[slot];
+	}
+
+	public int getX(int slot) {
+		return unitX[slot];
+	}
+
+	public int getY(int slot) {
+		return unitY[slot];
+	}
+
+	public int getXExtent() {
+		return xExtent;
+	}
+
+	public int getYExtent() {
+		return yExtent;
+	}
+
+	/**
+	 * @return the number of our footmen in the baseline that are no longer in this state
+	 */
+	public int getFootmenDiedCount() {
+		return baselineFootmen - survivingFootmen;
+	}
+
+	/**
+	 * @return the number of enemies in the baseline that are no longer in this state
+	 */
+	public int getEnemiesDiedCount() {
+		return baselineEnemies - survivingEnemies;
+	}
+
+	/**
+	 * Determines from the recorded changes whether a significant event has happened
+	 * since the baseline, that is whether a unit, good or bad, has been harmed or has died.
+	 * 
+	 * @return True, if a unit has been hurt or has died
+	 */
+	public boolean hasEvent() {
+		return hurtCount > 0 || getFootmenDiedCount() > 0 || getEnemiesDiedCount() > 0;
+	}
+
+	/**
+	 * Finds the slot of the unit with the given id.
+	 * 
+	 * @param id - the unit id
+	 * @return the slot of the unit, or -1 if it is not in this state
+	 */
+	public int slotOf(int id) {
+		return id >= 0 && id < slotById.length ? slotById[id] : NO_SLOT;
+	}
+
+	/**
+	 * @return whether the given unit is one of our footmen in this state
+	 */
+	public boolean containsFootman(int id) {
+		return indexOfFootman(id) >= 0;
+	}
+
+	/**
+	 * @return the index of the given unit among our footmen in this state, or -1 if it is
+	 * not one of them
+	 */
+	public int indexOfFootman(int id) {
+		int slot = slotOf(id);
+		if (slot == NO_SLOT) {
+			return -1;
+		}
+		for (int i = 0; i < footmanCount; i++) {
+			if (footmanSlots[i] == slot) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return whether the given unit is an enemy footman in this state
+	 */
+	public boolean containsEnemy(int id) {
+		int slot = slotOf(id);
+		if (slot == NO_SLOT) {
+			return false;
+		}
+		for (int i = 0; i < enemyCount; i++) {
+			if (enemySlots[i] == slot) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Determines if the given enemy is the closest enemy.
 	 * This is useful for determining when to target new enemies if they are closer.
 	 * 
-	 * @param footman - the footman to use the reference point of
-	 * @param enemy - the enemy to find the distance from the footman
-	 * @param enemyFootmen - the list of enemy footmen
-	 * @param unitLocations - the list of unit locations
+	 * @param footmanSlot - the slot of the footman to use the reference point of
+	 * @param enemySlot - the slot of the enemy to find the distance from the footman
 	 * @return if the given enemy is the closest enemy in terms of the Chebyshev distance
 	 */
-	public static boolean isClosest(Integer footman, Integer enemy, List<Integer> enemyFootmen, Map<Integer, CoordPair<Integer, Integer>> unitLocations) {
-		int enemyDist = chebyshevDistance(unitLocations.get(footman), unitLocations.get(enemy));
-		
-		for (Integer curEnemy : enemyFootmen) {
-			if (chebyshevDistance(unitLocations.get(footman), unitLocations.get(curEnemy)) < enemyDist) {
-				return false;
-			}
+	public boolean isClosest(int footmanSlot, int enemySlot) {
+		int enemyDist = chebyshevDistance(unitX[footmanSlot], unitY[footmanSlot],
+				unitX[enemySlot], unitY[enemySlot]);
+
+		//no other enemy may be closer than the given one
+		return enemyDist <= getNearestEnemyDistance(footmanSlot);
+	}
+
+	/**
+	 * Determines the Chebyshev distance of the enemy closest to the given footman.
+	 * 
+	 * @param footmanSlot - the slot of the footman to use the reference point of
+	 * @return the distance of the closest enemy
+	 */
+	public int getNearestEnemyDistance(int footmanSlot) {
+		SpatialGrid grid = getGrid();
+		if (nearestEnemyDistance[footmanSlot] < 0) {
+			nearestEnemyDistance[footmanSlot] = grid.getNearestEnemyDistance(unitX[footmanSlot],
+					unitY[footmanSlot]);
 		}
-		
-		return true;
+		return nearestEnemyDistance[footmanSlot];
 	}
-	
+
 	/**
 	 * Calculates the Chebyshev distance between two points (pairs).
 	 * 
@@ -91,30 +381,40 @@ public class GameState {
 	 * @param q - the second point to calculate distance to
 	 * @return the distance between points p and q
 	 */
-	public static int chebyshevDistance(CoordPair<Integer, Integer> p, CoordPair<Integer, Integer> q) {
-		int x = p.getX() - q.getX();
-		int y = p.getY() - q.getY();
-		return Math.max(x, y);
+	public static int chebyshevDistance(CoordPair p, CoordPair q) {
+		return CoordPair.chebyshevDistance(p, q);
 	}
-	
+
+	/**
+	 * Calculates the Chebyshev distance between two points given by their coordinates.
+	 * 
+	 * @return the distance between points (px, py) and (qx, qy)
+	 */
+	public static int chebyshevDistance(int px, int py, int qx, int qy) {
+		return CoordPair.chebyshevDistance(px, py, qx, qy);
+	}
+
 	/**
 	 * Determines the number of enemies adjacent to the given footman in the current state.
 	 * 
-	 * @param footman - the footman to use the reference point of
-	 * @param enemyFootmen - the enemy footmen in the game state
-	 * @param unitLocations - the unit locations in the game state
+	 * @param footmanSlot - the slot of the footman to use the reference point of
 	 * @return the number of enemies adjacent to the given footman
 	 */
-	public static int getAdjacentEnemyCount(Integer footman, List<Integer> enemyFootmen, Map<Integer, CoordPair<Integer, Integer>> unitLocations) {
-		int adjacent = 0;
-		for (Integer enemy : enemyFootmen) {
-			if (isAdjacent(unitLocations.get(footman), unitLocations.get(enemy))) {
-				adjacent++;
-			}
-		}
-		return adjacent;
+	public int getAdjacentEnemyCount(int footmanSlot) {
+		return getGrid().getAdjacentEnemyCount(unitX[footmanSlot], unitY[footmanSlot]);
 	}
-	
+
+	/**
+	 * Determines if two units of this state are adjacent to each other.
+	 * 
+	 * @param p - the slot of the first unit
+	 * @param q - the slot of the second unit
+	 * @return whether units p and q are adjacent to each other
+	 */
+	public boolean isAdjacent(int p, int q) {
+		return isAdjacent(unitX[p], unitY[p], unitX[q], unitY[q]);
+	}
+
 	/**
 	 * Determines if two points are adjacent to each other.
 	 * 
@@ -122,22 +422,89 @@ public class GameState {
 	 * @param q - the second point to check
 	 * @return whether p and q are adjacent to each other
 	 */
-	public static boolean isAdjacent(CoordPair<Integer, Integer> p, CoordPair<Integer, Integer> q) {
-		
-		//check x-direction
-		for (int i = p.getX() - 1; i <= p.getX() + 1; i++) {
-			//check y-direction
-			for (int j = p.getY() - 1; j <= p.getY() + 1; j++) {
-				//got an adjacent point
-				if (q.getX() == i && q.getY() == j) {
-					return true;
-				}
-			}
+	public static boolean isAdjacent(CoordPair p, CoordPair q) {
+		return CoordPair.areAdjacent(p, q);
+	}
+
+	/**
+	 * Determines if two points given by their coordinates are adjacent to each other,
+	 * that is, if q lies in the 3x3 square centered on p.
+	 * 
+	 * @return whether (px, py) and (qx, qy) are adjacent to each other
+	 */
+	public static boolean isAdjacent(int px, int py, int qx, int qy) {
+		return CoordPair.areAdjacent(px, py, qx, qy);
+	}
+
+	//adds a unit to the columns and the id index
+	private int addUnit(int id, int health, int x, int y) {
+		ensureCapacity(unitCount + 1);
+		ensureIdCapacity(id);
+
+		int slot = unitCount++;
+		unitIds[slot] = id;
+		unitHealth[slot] = health;
+		unitX[slot] = x;
+		unitY[slot] = y;
+		slotById[id] = slot;
+		gridBuilt = false;
+		version++;
+		recordChanges(slot);
+		return slot;
+	}
+
+	//counts the unit in the given slot if it lost health since the baseline
+	private void recordChanges(int slot) {
+		if (baseline == null) {
+			return;
 		}
-		
-		return false;
+		int baselineSlot = baseline.slotOf(unitIds[slot]);
+		if (baselineSlot != NO_SLOT && unitHealth[slot] < baseline.unitHealth[baselineSlot]) {
+			hurtCount++;
+		}
+	}
+
+	//forgets the recorded changes and starts recording against the given baseline
+	private void resetChanges(GameState baseline) {
+		this.baseline = baseline;
+		baselineFootmen = baseline == null ? 0 : baseline.footmanCount;
+		baselineEnemies = baseline == null ? 0 : baseline.enemyCount;
+		hurtCount = 0;
+		survivingFootmen = 0;
+		survivingEnemies = 0;
+	}
+
+	//grows the unit columns so they hold at least the given number of units
+	private void ensureCapacity(int capacity) {
+		if (capacity <= unitIds.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, unitIds.length * 2);
+		unitIds = Arrays.copyOf(unitIds, newCapacity);
+		unitHealth = Arrays.copyOf(unitHealth, newCapacity);
+		unitX = Arrays.copyOf(unitX, newCapacity);
+		unitY = Arrays.copyOf(unitY, newCapacity);
+		footmanSlots = Arrays.copyOf(footmanSlots, newCapacity);
+		enemySlots = Arrays.copyOf(enemySlots, newCapacity);
 	}
-	
+
+	//grows the id index so it can hold the given unit id
+	private void ensureIdCapacity(int id) {
+		if (id < slotById.length) {
+			return;
+		}
+		int oldLength = slotById.length;
+		slotById = Arrays.copyOf(slotById, Math.max(id + 1, oldLength * 2));
+		Arrays.fill(slotById, oldLength, slotById.length, NO_SLOT);
+	}
+
+	//resets only the id index entries used by the current units
+	private void clearIdIndex() {
+		for (int slot = 0; slot < unitCount; slot++) {
+			slotById[unitIds[slot]] = NO_SLOT;
+		}
+	}
+
 	/**
 	 * Simply returns a string including valuable details about this state.
 	 * @return the string of footman, health, and enemies and their health
@@ -146,19 +513,21 @@ public class GameState {
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
 		builder.append("==State==\n");
-		
+
 		builder.append("Friendlies:\n");
-		for (Integer footman : footmen) {
-			builder.append("\tFootman " + footman + ", HP: " + unitHealth.get(footman));
+		for (int i = 0; i < footmanCount; i++) {
+			int slot = footmanSlots[i];
+			builder.append("\tFootman " + unitIds[slot] + ", HP: " + unitHealth[slot]);
 		}
 		builder.append("\n");
-		
+
 		builder.append("Enemies:\n");
-		for (Integer footman : enemyFootmen) {
-			builder.append("\tFootman " + footman + ", HP: " + unitHealth.get(footman));
+		for (int i = 0; i < enemyCount; i++) {
+			int slot = enemySlots[i];
+			builder.append("\tFootman " + unitIds[slot] + ", HP: " + unitHealth[slot]);
 		}
 		builder.append("\n");
-		
+
 		return builder.toString();
 	}
 }
@@ -0,0 +1,330 @@
+package edu.cwru.sepia.agent;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Searches the learning options of the agent, such as alpha, gamma, epsilon and epsilonDecay,
+ * by training one independent agent per configuration on a thread pool and reporting their
+ * win rates and learning curves side by side.
+ * 
+ * A parameter is swept when its value is numeric: "alpha=0.001,0.01" tries each of the values,
+ * "gamma=0.8:0.99" draws values uniformly from the range and "alpha=log:0.0001:0.1" draws them
+ * log-uniformly. Without ranges the sweep is a grid search over every combination of the
+ * values; with "samples=N" it is a random search of N configurations drawing every parameter
+ * from its range or values, seeded by "sweepSeed". Any other key=value option, such as
+ * "batchUpdates=true", is given to every agent as it is.
+ * 
+ * Every agent plays in a simulator of its own with weights of its own, made from the agent's
+ * seed, so configurations differ only in their parameters and the results are repeatable.
+ * 
+ * Usage: HyperparameterSweep mapFile episodes threads [samples=N] [sweepSeed=S] key=value ...
+ */
+public class HyperparameterSweep {
+
+	//the seed of the simulator of every configuration
+	private static final int SIMULATOR_SEED = 0;
+
+	//the most rows of learning curves in a report
+	private static final int CURVE_ROWS = 20;
+
+	/**
+	 * A swept parameter, with either values to choose from or a range to draw from.
+	 */
+	private static class Parameter {
+		final String name;
+		final String[] values;
+		final double low;
+		final double high;
+		final boolean logScale;
+
+		Parameter(String name, String[] values, double low, double high, boolean logScale) {
+			this.name = name;
+			this.values = values;
+			this.low = low;
+			this.high = high;
+			this.logScale = logScale;
+		}
+
+		boolean isRange() {
+			return values == null;
+		}
+
+		//draws a value from the range or the values
+		String sample(SplitMixRandom random) {
+			if (!isRange()) {
+				return values[random.nextInt(values.length)];
+			}
+			double value = logScale
+					? Math.exp(Math.log(low) + random.nextDouble() * (Math.log(high) - Math.log(low)))
+					: low + random.nextDouble() * (high - low);
+			return String.format(Locale.ROOT, "%.6g", value);
+		}
+	}
+
+	/**
+	 * The outcome of training one configuration.
+	 */
+	public static class Result {
+		public final Map<String, String> options;
+		public final int learningGames;
+		public final int gamesWon;
+		public final List<Double> rewards;
+		public final double seconds;
+
+		public Result(Map<String, String> options, int learningGames, int gamesWon,
+				List<Double> rewards, double seconds) {
+			this.options = options;
+			this.learningGames = learningGames;
+			this.gamesWon = gamesWon;
+			this.rewards = rewards;
+			this.seconds = seconds;
+		}
+
+		/**
+		 * @return the share of the learning games that were won, evaluation games not counted
+		 */
+		public double getWinRate() {
+			return learningGames == 0 ? 0 : (double) gamesWon / learningGames;
+		}
+	}
+
+	private final CombatMap map;
+	private final int episodes;
+	private final int threads;
+	private final Map<String, String> fixedOptions = new LinkedHashMap<String, String>();
+	private final List<Parameter> parameters = new ArrayList<Parameter>();
+	private int samples = 0;
+	private long sweepSeed = 1;
+
+	/**
+	 * @param map - the map every configuration is trained on
+	 * @param episodes - the number of learning episodes of every configuration
+	 * @param threads - the number of configurations trained at once
+	 * @param spec - the parameters and options as key=value arguments
+	 */
+	public HyperparameterSweep(CombatMap map, int episodes, int threads, String[] spec) {
+		this.map = map;
+		this.episodes = episodes;
+		this.threads = threads;
+
+		for (String argument : spec) {
+			int split = argument.indexOf('=');
+			if (split <= 0) {
+				throw new IllegalArgumentException("Options must be given as key=value: " + argument);
+			}
+			String name = argument.substring(0, split).trim();
+			String value = argument.substring(split + 1).trim();
+			if (name.equals("samples")) {
+				samples = Integer.parseInt(value);
+			} else if (name.equals("sweepSeed")) {
+				sweepSeed = Long.parseLong(value);
+			} else {
+				Parameter parameter = parseParameter(name, value);
+				if (parameter != null) {
+					parameters.add(parameter);
+				} else {
+					fixedOptions.put(name, value);
+				}
+			}
+		}
+
+		for (Parameter parameter : parameters) {
+			if (parameter.isRange() && samples <= 0) {
+				throw new IllegalArgumentException("The range of " + parameter.name
+						+ " needs a random search, give the number of samples=N.");
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("Usage: HyperparameterSweep mapFile episodes threads [samples=N] "
+					+ "[sweepSeed=S] key=value ...");
+			System.out.println("   e.g. alpha=0.0001,0.001,0.01 gamma=0.8,0.9 epsilonDecay=0.002");
+			System.out.println("   or:  samples=16 alpha=log:0.0001:0.1 gamma=0.5:0.99");
+			return;
+		}
+
+		String[] spec = new String[args.length - 3];
+		System.arraycopy(args, 3, spec, 0, spec.length);
+		HyperparameterSweep sweep = new HyperparameterSweep(CombatMap.load(args[0]),
+				Integer.parseInt(args[1]), Integer.parseInt(args[2]), spec);
+		System.out.print(sweep.report(sweep.run()));
+	}
+
+	/**
+	 * Lists the options of every configuration of the sweep: every combination of the values
+	 * of a grid search, or the drawn samples of a random search.
+	 * 
+	 * @return the options of the configurations
+	 */
+	public List<Map<String, String>> configurations() {
+		List<Map<String, String>> configurations = new ArrayList<Map<String, String>>();
+		if (samples > 0) {
+			SplitMixRandom random = new SplitMixRandom(sweepSeed);
+			for (int i = 0; i < samples; i++) {
+				Map<String, String> options = new LinkedHashMap<String, String>(fixedOptions);
+				for (Parameter parameter : parameters) {
+					options.put(parameter.name, parameter.sample(random));
+				}
+				configurations.add(options);
+			}
+			return configurations;
+		}
+
+		//every combination, the last parameter changing fastest
+		configurations.add(new LinkedHashMap<String, String>(fixedOptions));
+		for (Parameter parameter : parameters) {
+			List<Map<String, String>> combined = new ArrayList<Map<String, String>>();
+			for (Map<String, String> configuration : configurations) {
+				for (String value : parameter.values) {
+					Map<String, String> options = new LinkedHashMap<String, String>(configuration);
+					options.put(parameter.name, value);
+					combined.add(options);
+				}
+			}
+			configurations = combined;
+		}
+		return configurations;
+	}
+
+	/**
+	 * Trains every configuration on the thread pool.
+	 * 
+	 * @return the results in the order of the configurations
+	 * @throws InterruptedException if interrupted while waiting for the results
+	 * @throws ExecutionException if the training of a configuration failed
+	 */
+	public List<Result> run() throws InterruptedException, ExecutionException {
+		List<Future<Result>> futures = new ArrayList<Future<Result>>();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (final Map<String, String> options : configurations()) {
+				futures.add(executor.submit(new Callable<Result>() {
+					@Override
+					public Result call() {
+						return train(options);
+					}
+				}));
+			}
+
+			List<Result> results = new ArrayList<Result>();
+			for (Future<Result> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Formats the results as a table of the configurations with their win rates, followed by
+	 * their learning curves side by side.
+	 * 
+	 * @param results - the results of the sweep
+	 * @return the report
+	 */
+	public String report(List<Result> results) {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format(Locale.ROOT, "%-4s %-48s %8s %9s %12s %9s%n", "#", "options",
+				"won", "win rate", "last reward", "seconds"));
+		for (int i = 0; i < results.size(); i++) {
+			Result result = results.get(i);
+			//a configuration that played no round has no reward to show
+			String lastReward = result.rewards.isEmpty() ? ""
+					: String.format(Locale.ROOT, "%.2f", result.rewards.get(result.rewards.size() - 1));
+			report.append(String.format(Locale.ROOT, "%-4d %-48s %8d %8.1f%% %12s %9.2f%n", i + 1,
+					describe(result.options), result.gamesWon, result.getWinRate() * 100,
+					lastReward, result.seconds));
+		}
+
+		//the average evaluation reward of every configuration, every few rounds of 15 games
+		int rounds = 0;
+		for (Result result : results) {
+			rounds = Math.max(rounds, result.rewards.size());
+		}
+		int step = Math.max(1, (rounds + CURVE_ROWS - 1) / CURVE_ROWS);
+		report.append(String.format("%nAverage cumulative reward of the evaluation games%n"));
+		report.append(String.format("%-8s", "games"));
+		for (int i = 0; i < results.size(); i++) {
+			report.append(String.format("%10s", "#" + (i + 1)));
+		}
+		report.append(String.format("%n"));
+		for (int round = 0; round < rounds; round += step) {
+			report.append(String.format("%-8d", 10 * round));
+			for (Result result : results) {
+				if (round < result.rewards.size()) {
+					report.append(String.format(Locale.ROOT, "%10.1f", result.rewards.get(round)));
+				} else {
+					report.append(String.format("%10s", ""));
+				}
+			}
+			report.append(String.format("%n"));
+		}
+		return report.toString();
+	}
+
+	//trains an agent of its own with the given options in a simulator of its own
+	private Result train(Map<String, String> options) {
+		RLAgent agent = new RLAgent(CombatSimulator.AGENT_PLAYER, episodes, null, options);
+		CombatSimulator simulator = new CombatSimulator(map, SIMULATOR_SEED);
+
+		long start = System.nanoTime();
+		while (!agent.isFinished()) {
+			simulator.playEpisode(agent);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		return new Result(options, agent.getLearningGames(), agent.getGamesWon(),
+				new ArrayList<Double>(agent.getRewards()), seconds);
+	}
+
+	//the swept options of a configuration
+	private String describe(Map<String, String> options) {
+		StringBuilder description = new StringBuilder();
+		for (Parameter parameter : parameters) {
+			if (description.length() > 0) {
+				description.append(' ');
+			}
+			description.append(parameter.name).append('=').append(options.get(parameter.name));
+		}
+		return description.toString();
+	}
+
+	//reads a swept parameter, or null if the value is not numeric and so a fixed option
+	private static Parameter parseParameter(String name, String value) {
+		try {
+			boolean logScale = value.startsWith("log:");
+			String range = logScale ? value.substring(4) : value;
+			int colon = range.indexOf(':');
+			if (colon > 0) {
+				double low = Double.parseDouble(range.substring(0, colon));
+				double high = Double.parseDouble(range.substring(colon + 1));
+				if (logScale && (low <= 0 || high <= 0)) {
+					throw new IllegalArgumentException("The log range of " + name
+							+ " must be positive.");
+				}
+				return new Parameter(name, null, low, high, logScale);
+			}
+
+			String[] values = value.split(",");
+			for (int i = 0; i < values.length; i++) {
+				values[i] = values[i].trim();
+				Double.parseDouble(values[i]);
+			}
+			return new Parameter(name, values, 0, 0, false);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
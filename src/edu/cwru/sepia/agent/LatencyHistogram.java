@@ -0,0 +1,145 @@
+package edu.cwru.sepia.agent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds with a fixed relative precision, laid out like an
+ * HdrHistogram.
+ * 
+ * Values below 32 have a bucket each. Above that every power of two is split into 16 buckets
+ * of equal width, so a value is known to within 1/16 of itself wherever it lies, from
+ * nanoseconds up to minutes, in a few hundred buckets. Recording only increments a counter and
+ * takes no locks, so several training threads may record into the same histogram while it is
+ * read. Values larger than the largest bucket are counted in it.
+ */
+public class LatencyHistogram {
+
+	//values below this many have a bucket each
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+	//the number of powers of two above the exact buckets, up to about 18 minutes
+	private static final int MAX_SHIFT = 36;
+	private static final int BUCKETS = SUB_BUCKETS + MAX_SHIFT * HALF_SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 * 
+	 * @param nanos - the latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(bucketOf(nanos));
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+
+		long largest = max.get();
+		while (nanos > largest && !max.compareAndSet(largest, nanos)) {
+			largest = max.get();
+		}
+	}
+
+	/**
+	 * @return the number of recorded latencies
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the sum of the recorded latencies in nanoseconds
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * @return the largest recorded latency in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean of the recorded latencies in nanoseconds, 0 if none were recorded
+	 */
+	public double getMean() {
+		long recorded = count.get();
+		return recorded == 0 ? 0 : (double) sum.get() / recorded;
+	}
+
+	/**
+	 * Finds the latency below or at which the given percentage of the recorded latencies lie,
+	 * as the upper end of its bucket.
+	 * 
+	 * @param percentile - the percentage, between 0 and 100
+	 * @return the latency in nanoseconds, 0 if none were recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		//the rank of the wanted latency, at least the first
+		long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forgets every recorded latency. Latencies recorded meanwhile may be partly kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	//the bucket of a value
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		//how far the value must be shifted down to leave its top SUB_BUCKET_BITS bits
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		if (shift > MAX_SHIFT) {
+			return BUCKETS - 1;
+		}
+		int subBucket = (int) (value >>> shift) - HALF_SUB_BUCKETS;
+		return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + subBucket;
+	}
+
+	//the largest value of a bucket
+	private static long highestValueOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+		long subBucket = (bucket - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,139 @@
+package edu.cwru.sepia.agent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the training metrics of an agent at http://localhost:port/metrics in the Prometheus
+ * text format, so a long run can be watched or scraped while it trains.
+ * 
+ * The counters are exported as counters, the win rate, epsilon and throughput as gauges and
+ * the latencies of the phases of a step as summaries in seconds, with the median, 90th, 99th
+ * and 99.9th percentile. The server only listens on the loopback address and answers on a
+ * single daemon thread, so it neither exposes the run nor keeps the JVM alive.
+ */
+public class MetricsServer {
+
+	//the quantiles of the latency summaries
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private final TrainingMetrics metrics;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	/**
+	 * Starts serving the metrics.
+	 * 
+	 * @param metrics - the metrics to serve
+	 * @param port - the local port to listen on
+	 * @throws IOException if the port cannot be bound
+	 */
+	public MetricsServer(TrainingMetrics metrics, int port) throws IOException {
+		this.metrics = metrics;
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = format().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				try {
+					out.write(body);
+				} finally {
+					out.close();
+				}
+			}
+		});
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "metrics-server");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops serving the metrics.
+	 */
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Formats the metrics in the Prometheus text format.
+	 * 
+	 * @return the metrics as text
+	 */
+	public String format() {
+		StringBuilder text = new StringBuilder();
+		metric(text, "sepia_steps_total", "counter", "Steps of all games played.",
+				metrics.getSteps());
+		metric(text, "sepia_episodes_total", "counter", "Games played.", metrics.getEpisodes());
+		metric(text, "sepia_games_won_total", "counter", "Games won.", metrics.getGamesWon());
+		metric(text, "sepia_win_rate", "gauge", "Share of the games played that were won.",
+				metrics.getWinRate());
+		metric(text, "sepia_epsilon", "gauge", "Exploration rate of the agent.",
+				metrics.getEpsilon());
+		metric(text, "sepia_steps_per_second", "gauge", "Steps per second since the start.",
+				metrics.getStepsPerSecond());
+		metric(text, "sepia_episodes_per_second", "gauge", "Games per second since the start.",
+				metrics.getEpisodesPerSecond());
+
+		text.append("# HELP sepia_phase_latency_seconds Latency of each phase of a step.\n");
+		text.append("# TYPE sepia_phase_latency_seconds summary\n");
+		for (int i = 0; i < TrainingMetrics.PHASES.length; i++) {
+			LatencyHistogram latency = metrics.getLatency(i);
+			String phase = "phase=\"" + TrainingMetrics.PHASES[i] + "\"";
+			for (double quantile : QUANTILES) {
+				sample(text, "sepia_phase_latency_seconds{" + phase + ",quantile=\"" + quantile + "\"}",
+						latency.getValueAtPercentile(quantile * 100) / 1e9);
+			}
+			sample(text, "sepia_phase_latency_seconds_sum{" + phase + "}", latency.getSum() / 1e9);
+			sample(text, "sepia_phase_latency_seconds_count{" + phase + "}", latency.getCount());
+		}
+		return text.toString();
+	}
+
+	//appends a metric of a single sample with its help and type
+	private static void metric(StringBuilder text, String name, String type, String help,
+			double value) {
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		sample(text, name, value);
+	}
+
+	//appends a sample
+	private static void sample(StringBuilder text, String name, double value) {
+		text.append(name).append(' ');
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			text.append((long) value);
+		} else {
+			text.append(String.format(Locale.ROOT, "%.9g", value));
+		}
+		text.append('\n');
+	}
+}
@@ -0,0 +1,156 @@
+package edu.cwru.sepia.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.cwru.sepia.environment.Environment;
+
+/**
+ * A headless training runner that plays many SEPIA environments at once.
+ * 
+ * Each worker thread owns its own environment, enemy CombatAgent and RLAgent worker, and all
+ * workers apply their TD updates to one shared weight vector without locking (Hogwild-style).
+ * The episodes requested in the configuration are split evenly between the workers, and the
+ * shared weights are saved to agent_weights/weights.txt and a new checkpoint once every
+ * worker is done. All workers record into the training metrics and episode log of the
+ * configured agent. With concurrentEvaluation=true every worker learns from every game while
+ * an environment of its own plays the evaluation games on a snapshot of the shared weights
+ * after every 10 games the workers played together, and the learning curve of the snapshots
+ * is printed at the end.
+ * 
+ * Usage: ParallelTrainer configFile [threads]
+ * where the configuration file is a normal SEPIA configuration such as data/10fv10fConfig.xml
+ * and the number of threads defaults to the number of available processors.
+ */
+public class ParallelTrainer {
+
+	//seed of the first worker's environment, each further worker adds one
+	private static final int BASE_SEED = 6;
+
+	private final TrainingConfiguration configuration;
+	private final int threads;
+
+	public ParallelTrainer(TrainingConfiguration configuration, int threads) {
+		this.configuration = configuration;
+		this.threads = threads;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: ParallelTrainer configFile [threads]");
+			return;
+		}
+
+		TrainingConfiguration configuration = TrainingConfiguration.load(args[0]);
+		int threads = args.length > 1 ? Integer.parseInt(args[1])
+				: Runtime.getRuntime().availableProcessors();
+
+		new ParallelTrainer(configuration, threads).train();
+	}
+
+	/**
+	 * Loads or creates the weights as the configured agent would, trains them with all
+	 * workers until each has played its share of episodes and saves them.
+	 * 
+	 * @return the trained weights
+	 * @throws Exception if a worker failed
+	 */
+	public double[] train() throws Exception {
+		//the configured agent loads or randomly initializes the shared weights
+		RLAgent master = new RLAgent(configuration.getPlayerNumber(),
+				configuration.getAgentArguments());
+		double[] weights = master.getWeights();
+
+		//split the episodes evenly, rounding up
+		int episodesPerWorker = (master.getEpisodes() + threads - 1) / threads;
+
+		boolean concurrentEvaluation = Boolean.parseBoolean(
+				master.getOptions().get("concurrentEvaluation"));
+
+		//the evaluator counts the learning games of all workers together
+		SnapshotEvaluator evaluator = concurrentEvaluation
+				? SnapshotEvaluator.forSepia(configuration, BASE_SEED + threads, master) : null;
+		List<Double> curve = new ArrayList<Double>();
+		curve.add(0.0);
+
+		List<RLAgent> workers = new ArrayList<RLAgent>();
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		try {
+			for (int i = 0; i < threads; i++) {
+				final RLAgent worker = new RLAgent(configuration.getPlayerNumber(),
+						episodesPerWorker, weights, master.getOptions());
+				worker.reportTo(master);
+				worker.splitRandom(master);
+				if (evaluator != null) {
+					worker.evaluateWith(evaluator);
+				}
+				final Environment environment = configuration.createEnvironment(
+						new Agent[] { worker, configuration.createEnemyAgent() }, BASE_SEED + i);
+				workers.add(worker);
+				results.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						playAll(worker, environment);
+					}
+				}));
+			}
+
+			//wait for every worker, rethrowing the first failure
+			for (Future<?> result : results) {
+				result.get();
+			}
+			if (evaluator != null) {
+				curve.addAll(evaluator.takeAll());
+			}
+		} finally {
+			executor.shutdownNow();
+			if (evaluator != null) {
+				evaluator.close();
+			}
+			master.closeReports();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		//combine the progress of all workers
+		int games = 0;
+		int gamesWon = 0;
+		for (RLAgent worker : workers) {
+			games += worker.getGameNumber();
+			gamesWon += worker.getGamesWon();
+		}
+
+		master.saveWeights(RLAgent.boxWeights(weights));
+		master.saveCheckpoint(games);
+		master.closeCheckpoints();
+		if (concurrentEvaluation) {
+			master.printTestData(curve);
+		}
+
+		System.out.println("Workers: " + threads + ", games played: " + games
+				+ String.format(", games per second: %.2f", games / seconds));
+		System.out.println("Games won: " + gamesWon);
+
+		return weights;
+	}
+
+	/**
+	 * Plays episodes in the given environment until the worker has played all of its episodes.
+	 * 
+	 * @param worker - the learning agent of the environment
+	 * @param environment - the environment to play in
+	 */
+	private static void playAll(RLAgent worker, Environment environment) {
+		try {
+			while (!worker.isFinished()) {
+				environment.runEpisode();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
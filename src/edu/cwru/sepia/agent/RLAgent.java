@@ -28,12 +28,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.ExecutionException;
 
 import edu.cwru.sepia.action.Action;
 import edu.cwru.sepia.action.TargetedAction;
@@ -41,7 +42,6 @@ import edu.cwru.sepia.agent.Agent;
 import edu.cwru.sepia.environment.model.history.History;
 import edu.cwru.sepia.environment.model.state.State.StateView;
 import edu.cwru.sepia.environment.model.state.Unit;
-import edu.cwru.sepia.environment.model.state.Unit.UnitView;
 
 /**
  * A Q-learning reinforcement learning agent designed to learn how to use the good footmen
@@ -59,52 +59,82 @@ public class RLAgent extends Agent {
 	 */
 	public static final int ENEMY_PLAYERNUM = 1;
 
-	// feature vector size of this agent
+	// feature vector size of the standard features of this agent
 	public static final int NUM_FEATURES = 9;
 
-	// the discount factor, a constant gamma
+	// the discount factor, a constant gamma unless given by the gamma option
 	private static final double GAMMA = 0.9;
 
-	// the learning rate of the agent
+	// the learning rate of the agent unless given by the alpha option
 	private static final double ALPHA = 0.001;
 
-	// the GLIE exploration value
+	// the GLIE exploration value and how much it decreases every 15 games unless given by
+	// the epsilon and epsilonDecay options
 	private static final double EPSILON = 0.02;
+	private static final double EPSILON_DECAY = 0.002f;
 
-	// state before the current state
-	private GameState priorState = null;
+	// the exponents of the TD errors for prioritized replay and of the importance sampling correction
+	private static final double PRIORITY_EXPONENT = 0.6;
+	private static final double IMPORTANCE_EXPONENT = 0.4;
 
-	// the random instance for use of generating random events
-	private static Random random;
+	// directory of the binary weight checkpoints and how many snapshots are kept
+	public static final String CHECKPOINT_DIRECTORY = "agent_weights/checkpoints";
+	public static final int RETAINED_CHECKPOINTS = 5;
 
-	// track the rewards received
-	private List<Double> rewards;
+	// reads the footmen of the SEPIA state views, set up at the start of every game
+	private StateAdapter stateAdapter = new StateAdapter(playernum);
 
-	// actions before the current actions
-	private AttackAction priorAction = new AttackAction(
-			new HashMap<Integer, Integer>());
+	// state before the current state
+	private GameState priorState = new GameState();
+
+	// reusable buffer the units of the current step are read into, swapped with the prior state
+	private GameState nextState = new GameState();
+
+	// reusable buffer for the current state padded with a dead footman during weight updates
+	private GameState paddedState = new GameState();
+
+	// reusable features and Q values of all footman/enemy pairs for action selection, the
+	// features of a single pair and the number of features, as chosen by the features option
+	private FeatureMatrix featureMatrix;
+	private FeatureMatrix pairMatrix;
+	private int numFeatures;
+
+	// the tile coder of the sparse feature mode, whose features are the indices of the active
+	// tiles, and the number of weights, which is the number of tiles in that mode;
+	// the tile coder is null when the features are dense
+	private TileCoder tileCoder;
+	private int numWeights;
+	private double[] qValues = new double[0];
+
+	// reusable slots of the footmen and targets of the action being selected
+	private int[] attackFootmen = new int[0];
+	private int[] attackTargets = new int[0];
+
+	// the features of each living footman's part of the greedy action in the current state,
+	// shared by the weight updates of all living footmen of a step, and the state, its version
+	// and the prior action they were selected for
+	private double[] memoFeatures = new double[0];
+	private double[] memoFeatureVector;
+	private GameState memoState;
+	private int memoVersion;
+	private AttackAction memoPriorAction;
+
+	//the random generator, weights, epsilon, game counters and episode bookkeeping of the agent
+	private AgentContext context;
+
+	//the seed of the agent's random generator unless given by the seed option
+	private static final long SEED = 12345;
+
+	//the learning rate and discount factor of the current run
+	private double alpha = ALPHA;
+	private double gamma = GAMMA;
 
-	// values used when in evaluation mode,
-	// this will make the agent freeze its Q function and play 5 evaluation
-	// games
-	private boolean evaluationMode = false;
-	private int gameNumber = 1;
-	private int evalGameNumber = 1;
-	private int gamesWon = 0;
+	// actions before the current actions
+	private AttackAction priorAction = new AttackAction();
 
 	// limit the number of episodes to 100 if not specified in constructor args
 	private int episodes = 100;
 
-	// Q-learning weights
-	public Double[] featureWeights;
-
-	// Boolean to record whether or not the agent is in its first round
-	private boolean firstRound = true;
-
-	//Values useful for the Q-function and feature vectors
-	private double currentEpsilon;
-	private double currentGameReward = 0.0;
-	private double avgGameReward = 0.0;
 	public int footmenDeadCount = 0;
 
 	//The final string to output
@@ -113,19 +143,67 @@ public class RLAgent extends Agent {
 	//The current game state
 	private StateView currentState;
 
+	//The ring of binary weight checkpoints and the background writer persisting them
+	private WeightCheckpoint checkpoint;
+	private CheckpointWriter checkpointWriter;
+
+	//Optional key=value arguments given after the number of episodes and whether to load weights
+	private Map<String, String> options = new HashMap<String, String>();
+
+	//Past transitions replayed in mini-batches after every learning step, null when replay is off
+	private ReplayBuffer replayBuffer;
+	private int replayBatchSize;
+	private boolean replayPrioritized;
+
+	//reusable features of a replayed transition
+	private double[] replayFeatures;
+	private double[] replayNextFeatures;
+
+	//reusable slots, TD errors and importance sampling weights of a replayed mini-batch
+	private int[] replaySlots;
+	private double[] replayLosses;
+	private double[] replayImportance;
+
+	//Whether all footmen learn from a step in one batched update instead of one by one
+	private boolean batchUpdates;
+
+	//reusable rewards, features, Q values and losses of every footman for batched updates
+	private double[] batchRewards = new double[0];
+	private double[] batchFeatures = new double[0];
+	private double[] batchNextFeatures = new double[0];
+	private double[] batchQValues = new double[0];
+	private double[] batchNextQValues = new double[0];
+	private double[] batchLosses = new double[0];
+
+	//Whether this agent is one of many training workers sharing their weights,
+	//workers neither save weights, print test data nor exit when done
+	private boolean worker = false;
+
+	//the training metrics, shared with the workers of the agent, and the server publishing them
+	private TrainingMetrics metrics = TrainingMetrics.DISABLED;
+	private MetricsServer metricsServer;
+
+	//told when the run is finished, the program ends instead if there is none
+	private RunListener runListener;
+
+	//the log of every episode, shared with the workers of the agent, null if not logging
+	private EpisodeLog episodeLog;
+
+	//the stream of this agent's episodes in the log and the next stream given to a worker
+	private int episodeStream = 0;
+	private int nextEpisodeStream = 0;
+
+	//attributes the rewards to the logged damage and deaths, null if they come from diffing states
+	private RewardLedger rewardLedger;
+
+	//plays the evaluation games on snapshots of the weights, null if they are interleaved
+	private SnapshotEvaluator evaluator;
+
+
 	public RLAgent(int playernum, String[] args) {
 		super(playernum);
 		
-		//assign something to the weights vector
-		featureWeights = new Double[10];
-		
 		finalOutput = new StringBuilder();
-		
-		//Initializes the current epsilon
-		currentEpsilon = EPSILON;
-
-		//make a random with PRNG seed of 12345
-		random = new Random(12345);
 
 		//read in number of episodes or default to 100
 		if (args.length > 0) {
@@ -142,22 +220,232 @@ public class RLAgent extends Agent {
 			System.out.println("Loading weights was not specified. The game will default to not loading them.");
 		}
 
-		//loads the weights from a file or makes new random ones
+		//read in any further key=value options
+		for (int i = 2; i < args.length; i++) {
+			int split = args[i].indexOf('=');
+			if (split > 0) {
+				options.put(args[i].substring(0, split).trim(), args[i].substring(split + 1).trim());
+			} else {
+				System.out.println("Ignoring argument " + args[i] + ", options must be given as key=value.");
+			}
+		}
+
+		//make a random with PRNG seed of 12345 unless another is given
+		context = createContext(null);
+		configureLearning();
+		checkpoint = new WeightCheckpoint(new File(CHECKPOINT_DIRECTORY), RETAINED_CHECKPOINTS);
+		configureCheckpoints();
+		configureReports();
+		initializeWeights(loadWeights);
+	}
+
+	/**
+	 * Loads the weights from the latest checkpoint or the weights file, or makes new random
+	 * ones if they are not to be loaded or none of the right size are found.
+	 * 
+	 * @param loadWeights - whether to load the weights
+	 */
+	private void initializeWeights(boolean loadWeights) {
+		double[] weights = null;
 		if (loadWeights) {
-			featureWeights = loadWeights();
+			WeightCheckpoint.Snapshot snapshot = checkpoint.loadLatest();
+			if (snapshot != null) {
+				weights = snapshot.weights;
+				context.setEpsilon(snapshot.epsilon);
+				System.out.println("Loaded weights from the checkpoint saved after episode "
+						+ snapshot.episode + ".");
+			} else {
+				weights = unboxWeights(loadWeights());
+			}
+			if (weights != null && weights.length != numWeights) {
+				System.out.println("The loaded weights do not match the " + numWeights
+						+ " weights of the features, new weights will be made.");
+				weights = null;
+			}
 		} 
 		
-		if(featureWeights == null || !loadWeights) {
+		if (weights == null) {
 			// initialize weights to random values between -1 and 1
-			featureWeights = new Double[NUM_FEATURES];
-			for (int i = 0; i < featureWeights.length; i++) {
-				featureWeights[i] = random.nextDouble() * 2 - 1;
+			weights = new double[numWeights];
+			for (int i = 0; i < weights.length; i++) {
+				weights[i] = context.getRandom().nextDouble() * 2 - 1;
+			}
+		}
+		context.setWeights(weights);
+	}
+
+	/**
+	 * Creates a training worker that learns into the given weight vector.
+	 * Any number of workers may share the same weights from separate threads, each applying
+	 * its updates without locking (Hogwild-style), so occasional lost updates are accepted.
+	 * 
+	 * @param playernum - the player number of the agent
+	 * @param episodes - the number of learning episodes this worker plays
+	 * @param sharedWeights - the weight vector shared by all workers
+	 */
+	RLAgent(int playernum, int episodes, double[] sharedWeights) {
+		this(playernum, episodes, sharedWeights, Collections.<String, String>emptyMap());
+	}
+
+	/**
+	 * Creates a training worker that learns into the given weight vector with the given
+	 * key=value options, such as those of the agent that created the weights.
+	 * 
+	 * @param playernum - the player number of the agent
+	 * @param episodes - the number of learning episodes this worker plays
+	 * @param sharedWeights - the weight vector shared by all workers, or null for new random
+	 * weights of the worker's own
+	 * @param options - the key=value options of the worker
+	 */
+	RLAgent(int playernum, int episodes, double[] sharedWeights, Map<String, String> options) {
+		super(playernum);
+		this.episodes = episodes;
+		this.worker = true;
+		this.options.putAll(options);
+
+		finalOutput = new StringBuilder();
+
+		//every agent has a generator of its own, split it off the runner's with splitRandom
+		context = createContext(sharedWeights);
+
+		configureLearning();
+		if (sharedWeights == null) {
+			initializeWeights(false);
+		}
+	}
+
+	/**
+	 * Starts a new run in this agent, as if it was newly created with the given number of
+	 * episodes and options but without loading weights, so that many runs can be played one
+	 * after another in the same warm JVM, environment and runner. The configured agent makes
+	 * new random weights while a worker keeps learning into the weights it shares.
+	 * 
+	 * @param episodes - the number of learning episodes of the run
+	 * @param options - the key=value options of the run
+	 */
+	public void restart(int episodes, Map<String, String> options) {
+		closeReports();
+		if (evaluator != null) {
+			evaluator.close();
+			evaluator = null;
+		}
+		this.episodes = episodes;
+		this.options.clear();
+		this.options.putAll(options);
+
+		context = createContext(context.getWeights());
+		configureLearning();
+		memoState = null;
+		if (!worker) {
+			checkpointWriter.close();
+			configureCheckpoints();
+			configureReports();
+			initializeWeights(false);
+		}
+	}
+
+	/**
+	 * Creates the learning state of a new run with the random generator seeded by the seed
+	 * option and the exploration rate given by the epsilon and epsilonDecay options.
+	 * 
+	 * @param weights - the weights of the run, may be set later
+	 * @return the learning state
+	 */
+	private AgentContext createContext(double[] weights) {
+		return new AgentContext(new SplitMixRandom(getLongOption("seed", SEED)), weights,
+				getDoubleOption("epsilon", EPSILON), getDoubleOption("epsilonDecay", EPSILON_DECAY));
+	}
+
+	/**
+	 * Starts the background checkpoint writer, which writes every checkpointEpisodes episodes
+	 * or checkpointSeconds seconds, whichever comes first.
+	 */
+	private void configureCheckpoints() {
+		checkpointWriter = new CheckpointWriter(checkpoint, alpha, gamma,
+				getIntOption("checkpointEpisodes", 1), getIntOption("checkpointSeconds", 0), 16);
+	}
+
+	/**
+	 * Sets up the learning rate and discount factor from the alpha and gamma options, the
+	 * features of the agent from the features option, a comma separated list of
+	 * feature names defaulting to the standard features, or as sparse tiles with tileCoding=true
+	 * and the tilings and tiles options, how the agent learns from the batchUpdates option,
+	 * whether the rewards are attributed from the logged damage and deaths with
+	 * historyRewards=true and experience replay as given by the replayCapacity, replayBatch and
+	 * replayPrioritized options. Replay is off unless a capacity is given.
+	 */
+	private void configureLearning() {
+		alpha = getDoubleOption("alpha", ALPHA);
+		gamma = getDoubleOption("gamma", GAMMA);
+
+		List<FeatureExtractor> extractors = FeatureExtractor.STANDARD;
+		tileCoder = null;
+		if (Boolean.parseBoolean(options.get("tileCoding"))) {
+			tileCoder = new TileCoder(getIntOption("tilings", 8), getIntOption("tiles", 8));
+			extractors = Collections.<FeatureExtractor>singletonList(tileCoder);
+		} else if (options.containsKey("features")) {
+			extractors = FeatureExtractor.parse(options.get("features"));
+		}
+		featureMatrix = new FeatureMatrix(extractors);
+		pairMatrix = new FeatureMatrix(extractors);
+		numFeatures = featureMatrix.getFeatureCount();
+		numWeights = tileCoder != null ? tileCoder.getTileCount() : numFeatures;
+		memoFeatureVector = new double[numFeatures];
+		replayFeatures = new double[numFeatures];
+		replayNextFeatures = new double[numFeatures];
+
+		batchUpdates = Boolean.parseBoolean(options.get("batchUpdates"));
+		//the batch buffers are sized by the number of features, which the options may change
+		batchRewards = new double[0];
+		batchFeatures = new double[0];
+		batchNextFeatures = new double[0];
+		batchQValues = new double[0];
+		batchNextQValues = new double[0];
+		batchLosses = new double[0];
+		rewardLedger = Boolean.parseBoolean(options.get("historyRewards")) ? new RewardLedger() : null;
+
+		int capacity = getIntOption("replayCapacity", 0);
+		replayBuffer = null;
+		if (capacity > 0) {
+			replayBuffer = new ReplayBuffer(capacity, numFeatures, PRIORITY_EXPONENT);
+			replayBatchSize = getIntOption("replayBatch", 32);
+			replayPrioritized = Boolean.parseBoolean(options.get("replayPrioritized"));
+			replaySlots = new int[replayBatchSize];
+			replayLosses = new double[replayBatchSize];
+			replayImportance = new double[replayBatchSize];
+		}
+	}
+
+	/**
+	 * Sets up the training metrics, which are published over JMX with metrics=true and also
+	 * served over HTTP on the local port given by metricsPort, and the binary log of every
+	 * episode written to the file given by episodeLog.
+	 */
+	private void configureReports() {
+		if (options.containsKey("episodeLog")) {
+			try {
+				episodeLog = new EpisodeLog(new File(options.get("episodeLog")));
+			} catch (IOException ex) {
+				System.err.println("Failed to open the episode log. Reason: " + ex.getMessage());
 			}
 		}
 
-		//accumulate rewards from the start
-		rewards = new ArrayList<>();
-		rewards.add(avgGameReward);
+		int port = getIntOption("metricsPort", 0);
+		if (!Boolean.parseBoolean(options.get("metrics")) && port <= 0) {
+			return;
+		}
+		metrics = new TrainingMetrics(true);
+		metrics.register(playernum);
+		if (port > 0) {
+			try {
+				metricsServer = new MetricsServer(metrics, port);
+				System.out.println("Serving training metrics at http://localhost:"
+						+ metricsServer.getPort() + "/metrics");
+			} catch (IOException ex) {
+				System.err.println("Failed to serve the training metrics. Reason: "
+						+ ex.getMessage());
+			}
+		}
 	}
 
 	/**
@@ -176,29 +464,31 @@ public class RLAgent extends Agent {
 		// initialize first values for the game state, game reward, and for the
 		// mode to operate in
 		currentState = stateView;
+		stateAdapter.begin(stateView);
+		beginEpisode(stateView.getTurnNumber());
 
-		// initializes the current game reward
-		currentGameReward = 0.0;
-
-		// checks if agent needs to enter evaluation mode
-		evaluationMode = (gameNumber - 1) % 15 > 9;
+		return middleStep(stateView, historyView);
+	}
 
-		// code for testing mode
-		if (!evaluationMode) {
-			avgGameReward = 0.0;
-			evalGameNumber = 1;
+	/**
+	 * Resets the game reward, the prior state and action and determines whether the
+	 * next game is to be played in evaluation mode.
+	 * Called at the start of every game, whether it is played in SEPIA or simulated.
+	 * 
+	 * @param turn - the first turn of the game, from which the reward ledger reads the logs
+	 */
+	void beginEpisode(int turn) {
+		// initializes the game reward and length and checks if agent needs to enter evaluation mode
+		context.beginEpisode();
+		if (rewardLedger != null) {
+			rewardLedger.begin(turn);
 		}
-
-		//must be the first round if initial step is called
-		firstRound = true;
 		
 		//there is no previous state to this state
-		priorState = null;
+		priorState.clear();
 		
 		//make a new attack action map 
-		priorAction = new AttackAction(new HashMap<Integer, Integer>());
-
-		return middleStep(stateView, historyView);
+		priorAction = new AttackAction();
 	}
 
 	/**
@@ -218,82 +508,132 @@ public class RLAgent extends Agent {
 	 */
 	@Override
 	public Map<Integer, Action> middleStep(StateView stateView, History.HistoryView historyView) {
-		Map<Integer, Action> builder = new HashMap<Integer, Action>();
 		currentState = stateView;
 
-		//Lists for current state's own and enemy footmen, health, and locations
-		List<Integer> curFootmen = new ArrayList<Integer>();
-		List<Integer> curEnemyFootmen = new ArrayList<Integer>();
-		Map<Integer, Integer> curUnitHealth = new HashMap<Integer, Integer>();
-		Map<Integer, CoordPair<Integer, Integer>> curUnitLocations = new HashMap<Integer, CoordPair<Integer, Integer>>();
-        
-		//fetch all the footman and track their locations and health
-		for (UnitView unit : currentState.getAllUnits()) {
-			String unitTypeName = unit.getTemplateView().getName();
-			
-			//we only want to select footmen
-			if (unitTypeName.equals("Footman")) {
-				
-				//Stores location of each footman as a coordinate pair in the locations list
-				curUnitLocations.put(unit.getID(), new CoordPair<Integer, Integer>(
-						unit.getXPosition(), unit.getYPosition()));
-				
-				//Stores until health in the health list
-				curUnitHealth.put(unit.getID(), unit.getHP());
-				
-				//Adds footman to the own or enemy list
-				if (currentState.getUnits(playernum).contains(unit)) {
-					curFootmen.add(unit.getID());
-				} else {
-					curEnemyFootmen.add(unit.getID());
-				}
-			}
+		//fetch all the footmen into the spare state buffer and learn from them
+		long time = metrics.time();
+		GameState state = nextStateBuffer();
+		readState(stateView, state);
+		if (rewardLedger != null) {
+			rewardLedger.read(historyView, stateView.getTurnNumber());
 		}
+		metrics.record(TrainingMetrics.STATE, time);
+		AttackAction action = step(state);
+
+		//keep executing the same actions if nothing happened
+		if (action == null) {
+			return Collections.emptyMap();
+		}
+
+		//Create compound attacks between each footman and an enemy
+		Map<Integer, Action> builder = new HashMap<Integer, Action>();
+		for (int i = 0; i < action.size(); i++) {
+			Action b = TargetedAction.createCompoundAttack(action.getFootman(i),
+					action.getTargetAt(i));
+			builder.put(action.getFootman(i), b);
+		}
+
+		return builder;
+	}
+
+	/**
+	 * Gets the spare state buffer, cleared so that the units of the next step can be added
+	 * to it while recording which of them changed since the prior state.
+	 * 
+	 * @return the state to fill with the units of the next step and pass to step
+	 */
+	GameState nextStateBuffer() {
+		nextState.clear(priorState);
+		return nextState;
+	}
+
+	/**
+	 * Learns from and acts on the next state of the game, without depending on how the
+	 * state was obtained, so the same learning runs under SEPIA and the combat simulator.
+	 * 
+	 * When a significant event has occurred, the reward is calculated for all of our footmen
+	 * and the weights are updated if the game is not in evaluation mode, after which a new
+	 * action is selected for our footman team.
+	 * 
+	 * @param currentState - the state returned by nextStateBuffer, filled with the units
+	 * @return the new attack plan, or null if no event occurred and the prior plan still holds
+	 */
+	AttackAction step(GameState currentState) {
+		metrics.recordStep();
+		context.countStep();
+		boolean evaluationMode = context.isEvaluationMode();
 
-		//create the new state from all units, health, and locations
-		GameState currentState = new GameState(curFootmen, curEnemyFootmen,
-				curUnitHealth, curUnitLocations);
-		
 		//Calculate the overall reward from all footmen on our team if not the first round
-		if (!firstRound) {
+		if (!context.isFirstRound()) {
 			
 			//check if any units have died, if not, keep executing the same actions 
-			if (!eventHasHappened(currentState, priorState)) {
-				return builder;
+			long time = metrics.time();
+			boolean event = rewardLedger != null ? rewardLedger.hasEvents()
+					: eventHasHappened(currentState);
+			metrics.record(TrainingMetrics.EVENTS, time);
+			if (!event) {
+				return null;
+			}
+			if (rewardLedger != null) {
+				rewardLedger.settle();
 			}
 			
+			if (batchRewards.length < priorState.getFootmanCount()) {
+				batchRewards = new double[priorState.getFootmanCount()];
+			}
+
 			//calculate the reward for each footman and add it to the current game reward
-			for (Integer footman : priorState.getFootmen()) {
+			for (int i = 0; i < priorState.getFootmanCount(); i++) {
+				int footman = priorState.getUnitId(priorState.getFootmanSlot(i));
 
 				//the reward of executing the previous action for the given footman
-				double reward = calculateReward(currentState, priorState,
-						priorAction, footman);
-				currentGameReward += reward;
+				time = metrics.time();
+				double reward = rewardLedger != null ? rewardLedger.getReward(footman)
+						: calculateReward(currentState, priorState, priorAction, footman);
+				context.addReward(reward);
+				time = metrics.record(TrainingMetrics.REWARD, time);
 
-				//only update weights if not in evaluation mode
+				//only update weights if not in evaluation mode, batched updates wait for every reward
 				if (!evaluationMode) {
-					updateWeights(reward, currentState, priorState, priorAction, footman);
+					if (batchUpdates) {
+						batchRewards[i] = reward;
+					} else {
+						updateWeights(reward, currentState, priorState, priorAction, footman);
+						metrics.record(TrainingMetrics.UPDATE, time);
+					}
 				}
 			}
+
+			if (!evaluationMode && batchUpdates) {
+				time = metrics.time();
+				updateWeightsBatch(batchRewards, currentState, priorState, priorAction);
+				metrics.record(TrainingMetrics.UPDATE, time);
+			}
+
+			//learn again from a mini-batch of past transitions
+			if (!evaluationMode && replayBuffer != null) {
+				time = metrics.time();
+				replay();
+				metrics.record(TrainingMetrics.UPDATE, time);
+			}
 		} else {
 			//no reward obtained yet if on the first round
-			firstRound = false;
+			context.endFirstRound();
+		}
+		if (rewardLedger != null) {
+			rewardLedger.clear();
 		}
 
-		//Recognize that the current state will now be the previous state
+		//Recognize that the current state will now be the previous state,
+		//the old prior state buffer is recycled for the next step
+		nextState = priorState;
 		priorState = currentState;
 
 		//Select a new action to execute based on the current state and the previous action
+		long time = metrics.time();
 		priorAction = selectAction(priorState, priorAction);
-
-		//Create compound attacks between each footman and an enemy
-		for (Integer footmanID : priorAction.getAttack().keySet()) {
-			Action b = TargetedAction.createCompoundAttack(footmanID,
-					priorAction.getAttack().get(footmanID));
-			builder.put(footmanID, b);
-		}
-
-		return builder;
+		metrics.record(TrainingMetrics.SELECT, time);
+		return priorAction;
 	}
 
 	/**
@@ -304,7 +644,8 @@ public class RLAgent extends Agent {
 	 * 
 	 * Determines the number of games won, and prints value at the end of all episodes.
 	 *
-	 * Weights are saved with the saveWeights function.
+	 * Weights are handed to the background checkpoint writer after every episode and saved
+	 * with the saveWeights function once all episodes are played.
 	 * 
 	 * Handles exiting the program when finished.
 	 * 
@@ -315,61 +656,343 @@ public class RLAgent extends Agent {
 	public void terminalStep(StateView stateView,
 			History.HistoryView historyView) {
 
+		//Checks if any of our footmen are still alive at the end
+		//if they are, that means we won!
+		endEpisode(stateAdapter.hasFootmen(currentState));
+	}
+
+	/**
+	 * Records the outcome of a finished game, whether it was played in SEPIA or simulated,
+	 * and updates the evaluation rewards, epsilon and the game count.
+	 * 
+	 * @param won - whether any of our footmen survived the game
+	 */
+	void endEpisode(boolean won) {
 		//the builder to output any strings necessary
 		StringBuilder builder = new StringBuilder();
 
-		// Save feature weights to file for future reference
-		saveWeights(featureWeights);
+		// Hand the feature weights to the checkpoint writer, workers leave that to their runner
+		if (!worker) {
+			checkpointWriter.submit(context.getWeights(), context.getGameNumber(),
+					context.getEpsilon());
+		}
+		metrics.recordEpisode(won, context.getEpsilon());
+		logEpisode(won);
 
-		boolean won = false;
-		
-		//Checks if any of our footmen are still alive at the end
-		//if they are, that means we won!
-		for (UnitView unit : currentState.getUnits(playernum)) {
-			String unitTypeName = unit.getTemplateView().getName();
-			if (unitTypeName.equals("Footman")) {
-				won = true;
+		//count the learning game with the evaluator when it plays the evaluation games, which
+		//snapshots the weights every 10 games it counted
+		if (evaluator != null) {
+			evaluator.countGame(context.getWeights());
+		}
+
+		//count the game won and the evaluation reward, then update epsilon and print the
+		//test reward data when complete with eval mode, workers leave the snapshots evaluated
+		//so far to their runner
+		if (context.endEpisode(won)) {
+			if (!worker) {
+				takeEvaluations(false);
+				printTestData(context.getRewards());
 			}
 		}
-		
-		//increment the number of games won not in eval mode
-		if (won == true && !evaluationMode)
-			gamesWon += 1;
 
-		// Calculate the average cumulative reward during tests
-		if (evaluationMode) {
+		// the game is now complete, must print all relevant episode data from entire game
+		if (isFinished()) {
+			//workers are stopped by their runner
+			if (worker) {
+				return;
+			}
+			takeEvaluations(true);
+			finishRun();
+			return;
+		}
+
+		//print any useful info to determine learning updates
+		System.out.print(builder.toString());
+
+		// one more game was played
+		context.nextGame();
+	}
 
-			// find the current average game reward averaged over the current eval game number
-			avgGameReward = ((avgGameReward * evalGameNumber) + currentGameReward)
-					/ ++evalGameNumber;
+	/**
+	 * Saves the final weights and prints the games won, then hands the finished run to the
+	 * run listener, or ends the program if there is none. With a listener the weights are left
+	 * to it instead of the text file, so that many runs do not overwrite each other's.
+	 */
+	private void finishRun() {
+		//keep the final weights in the text format as well
+		if (runListener == null) {
+			saveWeights(boxWeights(context.getWeights()));
+		}
 
-			// one more eval game was played
-			evalGameNumber++;
+		System.out.println(finalOutput.toString());
+		System.out.print("Games won: " + context.getGamesWon());
+		if (runListener == null) {
+			exit();
 		}
 
-		// update epsilon value and print the test reward data when complete with eval mode
-		if (gameNumber % 15 == 0) {
-			
-			//update epsilon by -0.002f to explore less as we play
-			currentEpsilon = currentEpsilon < 0 ? 0 : currentEpsilon - 0.002f;
+		System.out.println();
+		checkpointWriter.close();
+		closeReports();
+		runListener.runFinished(this);
+	}
+
+	/**
+	 * Flushes the latest weight checkpoint and ends the program.
+	 */
+	private void exit() {
+		checkpointWriter.close();
+		closeReports();
+		System.exit(0);
+	}
+
+	/**
+	 * Lets the given evaluator play the evaluation games on snapshots of the weights, so that
+	 * this agent learns from every game of its run. Set before the first game of a run. The
+	 * workers of a run can share one evaluator, which the runner then takes the evaluations of.
+	 * 
+	 * @param evaluator - the evaluator of the agent's weights
+	 */
+	void evaluateWith(SnapshotEvaluator evaluator) {
+		this.evaluator = evaluator;
+		context.setSchedule(AgentContext.LEARNING_ONLY);
+	}
 
-			// print the test reward data
-			rewards.add(avgGameReward);
-			printTestData(rewards);
+	/**
+	 * Adds the average rewards of the snapshots evaluated so far to the learning curve.
+	 * 
+	 * @param wait - whether to wait until every snapshot is evaluated, such as when the run
+	 * is over, after which the evaluator is closed
+	 */
+	void takeEvaluations(boolean wait) {
+		if (evaluator == null) {
+			return;
 		}
+		try {
+			List<Double> rewards = wait ? evaluator.takeAll() : evaluator.takeFinished();
+			for (Double reward : rewards) {
+				context.addRoundReward(reward);
+			}
+		} catch (ExecutionException ex) {
+			System.err.println("Failed to evaluate the weights. Reason: " + ex.getCause());
+			evaluator.close();
+			evaluator = null;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		if (wait && evaluator != null) {
+			evaluator.close();
+			evaluator = null;
+		}
+	}
 
-		// the game is now complete, must print all relevant episode data from entire game
-		if (((gameNumber / 15) * 10) >= episodes) {
-			System.out.println(finalOutput.toString());
-			System.out.print("Games won: " + gamesWon);
-			System.exit(0);
+	/**
+	 * Makes this agent play only evaluation games, neither exploring nor learning, such as
+	 * the agent of a snapshot evaluator.
+	 */
+	void freeze() {
+		context.setSchedule(AgentContext.EVALUATION_ONLY);
+	}
+
+	/**
+	 * Starts a new round of evaluation games, whose average reward is then given by
+	 * getEvaluationReward.
+	 */
+	void beginEvaluationRound() {
+		context.beginRound();
+	}
+
+	/**
+	 * @return the average reward of the evaluation games of the current round
+	 */
+	double getEvaluationReward() {
+		return context.getAverageReward();
+	}
+
+	/**
+	 * Sets the listener told when the agent has played all of its episodes. With a listener
+	 * the agent stays alive after its run, so it can be restarted, instead of ending the
+	 * program.
+	 * 
+	 * @param runListener - the listener, or null to end the program after the run
+	 */
+	public void setRunListener(RunListener runListener) {
+		this.runListener = runListener;
+	}
+
+	/**
+	 * Appends the finished episode to the episode log, if there is one. The log is given up
+	 * on when it cannot be written.
+	 * 
+	 * @param won - whether any of our footmen survived the game
+	 */
+	private void logEpisode(boolean won) {
+		if (episodeLog == null) {
+			return;
 		}
+		try {
+			episodeLog.append(context.getGameNumber(), episodeStream, context.getEpisodeSteps(),
+					won, context.isEvaluationMode(), context.getGameReward(), context.getEpsilon(),
+					context.getWeights());
+		} catch (IOException ex) {
+			System.err.println("Failed to write the episode log. Reason: " + ex.getMessage());
+			episodeLog = null;
+		}
+	}
 
-		//print any useful info to determine learning updates
-		System.out.print(builder.toString());
+	/**
+	 * Stops publishing the training metrics over JMX and HTTP and writes and closes the
+	 * episode log.
+	 */
+	void closeReports() {
+		metrics.unregister();
+		metrics = TrainingMetrics.DISABLED;
+		if (metricsServer != null) {
+			metricsServer.close();
+			metricsServer = null;
+		}
+		if (episodeLog != null) {
+			try {
+				episodeLog.close();
+			} catch (IOException ex) {
+				System.err.println("Failed to write the episode log. Reason: " + ex.getMessage());
+			}
+			episodeLog = null;
+		}
+	}
 
-		// one more game was played
-		gameNumber++;
+	/**
+	 * Gets an integer option given as a key=value argument.
+	 * 
+	 * @param name - the key of the option
+	 * @param defaultValue - the value to use when the option is not given
+	 * @return the value of the option
+	 */
+	private int getIntOption(String name, int defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+
+	/**
+	 * Gets a decimal option given as a key=value argument.
+	 * 
+	 * @param name - the key of the option
+	 * @param defaultValue - the value to use when the option is not given
+	 * @return the value of the option
+	 */
+	private double getDoubleOption(String name, double defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : Double.parseDouble(value);
+	}
+
+	/**
+	 * Gets a long option given as a key=value argument.
+	 * 
+	 * @param name - the key of the option
+	 * @param defaultValue - the value to use when the option is not given
+	 * @return the value of the option
+	 */
+	private long getLongOption(String name, long defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : Long.parseLong(value);
+	}
+
+	/**
+	 * Determines whether all episodes have been played, counting 10 learning episodes
+	 * for every 15 games since 5 of them are evaluation games, unless an evaluator plays them.
+	 * 
+	 * @return True, if the agent has played all of its episodes
+	 */
+	public boolean isFinished() {
+		return context.hasPlayed(episodes);
+	}
+
+	/**
+	 * Gets the key=value options the agent was created with.
+	 * 
+	 * @return the options by key
+	 */
+	Map<String, String> getOptions() {
+		return Collections.unmodifiableMap(options);
+	}
+
+	/**
+	 * Gets the ledger the rewards are attributed from, which the combat simulator records its
+	 * attacks and deaths into.
+	 * 
+	 * @return the ledger, null unless the agent was created with historyRewards=true
+	 */
+	RewardLedger getRewardLedger() {
+		return rewardLedger;
+	}
+
+	/**
+	 * Gets the training metrics of the agent, which its workers can share with reportTo.
+	 * 
+	 * @return the metrics, disabled unless the agent was created with the metrics options
+	 */
+	TrainingMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Records the training of this agent into the metrics and episode log of the given agent,
+	 * such as the configured agent of a run of many workers. Each agent reporting to the same
+	 * agent logs its episodes in a stream of its own, numbered in the order they report.
+	 * 
+	 * @param agent - the agent to report to
+	 */
+	void reportTo(RLAgent agent) {
+		this.metrics = agent.metrics;
+		this.episodeLog = agent.episodeLog;
+		this.episodeStream = agent.nextEpisodeStream++;
+	}
+
+	/**
+	 * Gives this agent a random generator split off the given agent's, so the workers of a
+	 * run each explore with a stream of their own that still follows from the run's seed.
+	 * 
+	 * @param agent - the agent to split the generator of
+	 */
+	void splitRandom(RLAgent agent) {
+		context.setRandom(agent.context.getRandom().split());
+	}
+
+	/**
+	 * Gets the Q-learning weights of the agent, which its workers may share.
+	 * 
+	 * @return the weights
+	 */
+	public double[] getWeights() {
+		return context.getWeights();
+	}
+
+	/**
+	 * Gets the learning curve of the agent, the average reward of the evaluation games of
+	 * every 15 games, or of the snapshot of every 10 learning games if an evaluator plays
+	 * them, starting with 0 before the first game.
+	 * 
+	 * @return the average evaluation reward of every 10 learning games played
+	 */
+	public List<Double> getRewards() {
+		return context.getRewards();
+	}
+
+	//basic getters for the progress of the agent
+
+	public int getEpisodes() {
+		return episodes;
+	}
+
+	public int getGameNumber() {
+		return context.getGameNumber();
+	}
+
+	public int getGamesWon() {
+		return context.getGamesWon();
+	}
+
+	public int getLearningGames() {
+		return context.getLearningGames();
 	}
 
 	/**
@@ -380,19 +1003,56 @@ public class RLAgent extends Agent {
 	 * @return the Q-function value of the given feature vector
 	 */
 	public double calculateQValue(double[] featureVector) {
+		double[] weights = context.getWeights();
+		if (tileCoder != null) {
+			return tileCoder.dot(weights, featureVector, 0);
+		}
+
 		double qWeight = 0;
 
 		//take dot product of feature vector and feature weights
-		for (int i = 0; i < featureWeights.length; i++) {
-			qWeight += featureWeights[i] * featureVector[i];
+		for (int i = 0; i < weights.length; i++) {
+			qWeight += weights[i] * featureVector[i];
 		}
 
 		return qWeight;
 	}
 
+	/**
+	 * Determines the Q-function values of a batch of feature vectors stored back to back,
+	 * such as all footman/enemy pairs of a feature matrix, in a single pass.
+	 * 
+	 * @param features - the feature vectors, one value per feature each
+	 * @param count - the number of feature vectors to score
+	 * @param qValues - receives the Q-function value of each feature vector
+	 */
+	public void calculateQValues(double[] features, int count, double[] qValues) {
+		//read the weights once into locals so the inner loop stays on primitives
+		double[] weights = context.getWeights();
+		int numWeights = weights.length;
+
+		if (tileCoder != null) {
+			for (int pair = 0, offset = 0; pair < count; pair++, offset += numFeatures) {
+				qValues[pair] = tileCoder.dot(weights, features, offset);
+			}
+			return;
+		}
+
+		for (int pair = 0, offset = 0; pair < count; pair++, offset += numWeights) {
+			double qWeight = 0;
+
+			//take dot product of feature vector and feature weights
+			for (int i = 0; i < numWeights; i++) {
+				qWeight += weights[i] * features[offset + i];
+			}
+
+			qValues[pair] = qWeight;
+		}
+	}
+
 	/**
 	 * Gets the feature vector of a given state using the footman id, the enemy
-	 * id, and an attack action map.
+	 * id, and an attack action map, made of the features chosen for this agent.
 	 * 
 	 * @param state - the game state to get the features of
 	 * @param footman - the footman id to get the feature vector in reference to
@@ -401,18 +1061,16 @@ public class RLAgent extends Agent {
 	 *            actions
 	 * @return the feature vector in reference to the given values
 	 */
-	public static double[] calculateFeatureVector(GameState state, Integer footman,
-			Integer enemy, AttackAction action) {
-		return getFeatureVector(footman, enemy, state.getFootmen(),
-				state.getEnemyFootmen(), state.getUnitHealth(),
-				state.getUnitLocations(), action.getAttack());
+	public double[] calculateFeatureVector(GameState state, int footman,
+			int enemy, AttackAction action) {
+		pairMatrix.computePair(state, action, state.slotOf(footman), state.slotOf(enemy));
+		return pairMatrix.getFeatureVector(0, 0);
 	}
 
 	/**
-	 * Gets the feature vector of a given state using the footman id, the enemy
-	 * id, a list of footmen ids, a list of enemy ids, the health of all units,
-	 * a map of the unit locations, and a map of attack actions in reference to
-	 * unit ids. The features are the following:
+	 * Gets the standard feature vector of a given state using the slot of the footman, the slot
+	 * of the enemy and the attack actions in reference to unit ids.
+	 * The features are the following:
 	 * 
 	 *first feature value is always 1 to remain non-zero
 	 *second feature value is the health of the given footman, but negative
@@ -424,38 +1082,36 @@ public class RLAgent extends Agent {
 	 *eighth feature is based on whether the target is adjacent for attacking
 	 *ninth feature values how many enemies can currently attack the given footman
 	 * 
-	 * @param footman - the footman id in reference to
-	 * @param enemy - the enemy targeted by the given footman
-	 * @param footmen - a list of the footmen currently in the game state
-	 * @param enemyFootmen - a list of the enemy footmen currently in the game state
-	 * @param unitHealth - a list of the health of all units
-	 * @param unitLocations - a map of the locations of all units
-	 * @param attack - the attack action map in refernce to unit ids
+	 * @param state - the game state holding the footmen, enemies, health and locations
+	 * @param footmanSlot - the slot of the footman in reference to
+	 * @param enemySlot - the slot of the enemy targeted by the given footman
+	 * @param attack - the attack actions in reference to unit ids
 	 * @return the feature vector in reference to the given values
 	 */
-	public static double[] getFeatureVector(Integer footman, Integer enemy,
-			List<Integer> footmen, List<Integer> enemyFootmen,
-			Map<Integer, Integer> unitHealth,
-			Map<Integer, CoordPair<Integer, Integer>> unitLocations,
-			Map<Integer, Integer> attack) {
+	public static double[] getFeatureVector(GameState state, int footmanSlot,
+			int enemySlot, AttackAction attack) {
 
 		double[] featureVector = new double[NUM_FEATURES];
 
+		int enemy = state.getUnitId(enemySlot);
+		int footmanHealth = state.getHealth(footmanSlot);
+		int enemyHealth = state.getHealth(enemySlot);
+
 		// first feature value is always 1 to remain non-zero
 		featureVector[0] = 1;
 
 		// second feature value is the health of the given footman
-		featureVector[1] = unitHealth.get(footman);
+		featureVector[1] = footmanHealth;
 
 		// third feature value is the health of the given footman's enemy target, but negative
-		featureVector[2] = -unitHealth.get(enemy);
+		featureVector[2] = -enemyHealth;
 
 		// fourth feature is valued from this footman attacking the closest enemy footman
-		if (GameState.isClosest(footman, enemy, enemyFootmen, unitLocations)){//attack.get(footman) == enemy) {
+		if (state.isClosest(footmanSlot, enemySlot)){//attack.get(footman) == enemy) {
 			//positively weigh attacking the closest footman
 			featureVector[3] += 100;
 			
-		} else if (attack.get(footman) == null) {
+		} else if (attack.getTargetBySlot(state, footmanSlot) == AttackAction.NO_TARGET) {
 			featureVector[3] -= 100;
 		} else {
 			featureVector[3] += 50;
@@ -463,42 +1119,38 @@ public class RLAgent extends Agent {
 
 		
 		// fifth feature is a multiple of how many enemies are attacking the given footman
-		featureVector[4] = 0;
-		for (Integer attacker : attack.keySet()) {
-			//we cannot attack ourselves
-			if (attacker == footman) {
-				continue;
-			}
-			
-			//greatly weigh attacking the enemy over not
-			featureVector[4] += attack.get(attacker) == enemy ? 10 : 0.1;
-		}
+		//we cannot attack ourselves, so this footman's own attack is not counted
+		int footmanTarget = attack.getTargetBySlot(state, footmanSlot);
+		int otherAttacks = attack.size() - (footmanTarget == AttackAction.NO_TARGET ? 0 : 1);
+		int sameTarget = attack.getAttackerCountBySlot(state, enemySlot)
+				- (footmanTarget == enemy ? 1 : 0);
+
+		//greatly weigh attacking the enemy over not
+		featureVector[4] = sameTarget * 10 + (otherAttacks - sameTarget) * 0.1;
 
 
 		// sixth feature values determining the ratio of hit-points of footman to target enemy
-		featureVector[5] = unitHealth.get(footman) / Math.max(unitHealth.get(enemy), 1);
+		featureVector[5] = footmanHealth / Math.max(enemyHealth, 1);
 		
 		// seventh feature values footmen staying alive
-        for (Integer man : footmen){
-        	//greatly weight having hp
-        	if (unitHealth.get(man) > 0){
-        		featureVector[6] += 10;
-        	} else {
-        		//otherwise, add values for still having any footmen alive
-        		featureVector[6] += 0.1;
-        	}
-        }
+		for (int i = 0; i < state.getFootmanCount(); i++) {
+			//greatly weight having hp
+			if (state.getHealth(state.getFootmanSlot(i)) > 0) {
+				featureVector[6] += 10;
+			} else {
+				//otherwise, add values for still having any footmen alive
+				featureVector[6] += 0.1;
+			}
+		}
         
         // eighth feature is based on whether the target is adjacent for attacking
-		if (GameState.isAdjacent(unitLocations.get(footman),
-				unitLocations.get(enemy))) {
+		if (state.isAdjacent(footmanSlot, enemySlot)) {
 			featureVector[7] += 10;
 		} else {
 			featureVector[7] -= 10;
 		}
 		
-		int adjEnemyCount = GameState.getAdjacentEnemyCount(footman, enemyFootmen,
-				unitLocations);
+		int adjEnemyCount = state.getAdjacentEnemyCount(footmanSlot);
 		
 		// ninth feature values how many enemies can currently attack the given footman
 		if (adjEnemyCount <= 2) {
@@ -519,41 +1171,68 @@ public class RLAgent extends Agent {
 	 * @param alpha - the agent learning rate
 	 */
 	public void updateWeights(double[] featureVector, double calcLoss, double alpha) {
-		for (int i = 0; i < featureWeights.length; i++) {
-			featureWeights[i] += (alpha * calcLoss);
+		//only the weights of the active tiles move in the sparse feature mode
+		double[] weights = context.getWeights();
+		if (tileCoder != null) {
+			tileCoder.update(weights, featureVector, 0, alpha * calcLoss);
+			return;
+		}
+
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] += (alpha * calcLoss);
 		}
 	}
 
 	/**
-	 * Determines if a significant event has happened.
-	 * Such an event is whether a unit, good or bad, has been harmed or has died.
+	 * Updates the feature weights from a batch of feature vectors stored back to back and the
+	 * loss of each, as the single vector update would one after another.
 	 * 
-	 * @param currentState - the current state of the game
-	 * @param priorState - the prior state of the game
-	 * @return True, if such a described event has happened
+	 * @param features - the feature vectors, one value per feature each
+	 * @param losses - the calculated loss of each feature vector
+	 * @param count - the number of feature vectors
+	 * @param alpha - the agent learning rate
 	 */
-	private boolean eventHasHappened(GameState currentState, GameState priorState) {
-		//determine if a unit has died since the prior state
-		if (currentState.getEnemyFootmen().size() < priorState.getEnemyFootmen().size() 
-				|| currentState.footmenDeadCount > priorState.footmenDeadCount) {
-			return true;
+	public void updateWeights(double[] features, double[] losses, int count, double alpha) {
+		double[] weights = context.getWeights();
+		if (tileCoder != null) {
+			for (int k = 0, offset = 0; k < count; k++, offset += numFeatures) {
+				tileCoder.update(weights, features, offset, alpha * losses[k]);
+			}
+			return;
 		}
 
-		//was a unit hurt since the prior state?
-		boolean unitHurt = false;
-
-		//gather all footmen from the current state
-		List<Integer> footmen = new ArrayList<Integer>();
-		footmen.addAll(currentState.getFootmen());
-		footmen.addAll(currentState.getEnemyFootmen());
-
-		//Determine if any footmen were injured in the event
-		for (Integer footman : footmen) {
-			unitHurt |= (currentState.getUnitHealth().get(footman) < priorState
-					.getUnitHealth().get(footman));
+		double totalLoss = 0;
+		for (int k = 0; k < count; k++) {
+			totalLoss += losses[k];
+		}
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] += (alpha * totalLoss);
 		}
+	}
+
+	/**
+	 * Fetches all the footmen of the given state view and tracks their locations and health
+	 * in the given game state.
+	 * 
+	 * @param stateView - the state to read the footmen from
+	 * @param state - the cleared game state to add the footmen to
+	 */
+	void readState(StateView stateView, GameState state) {
+		stateAdapter.read(stateView, state);
+	}
 
-		return unitHurt;
+	/**
+	 * Determines if a significant event has happened.
+	 * Such an event is whether a unit, good or bad, has been harmed or has died.
+	 * 
+	 * The changes of every unit are recorded against the prior state while the current
+	 * state is read in, so this only looks at those recorded counts.
+	 * 
+	 * @param currentState - the current state of the game, filled against the prior state
+	 * @return True, if such a described event has happened
+	 */
+	private boolean eventHasHappened(GameState currentState) {
+		return currentState.hasEvent();
 	}
 
 	/**
@@ -565,42 +1244,58 @@ public class RLAgent extends Agent {
 	 * @param priorAction - the prior action in prior state of the game
 	 * @return An attack plan which assigns a target to each footman
 	 */
-	private AttackAction selectAction(GameState state, AttackAction priorAction) {
-		Map<Integer, Integer> attack = new HashMap<Integer, Integer>();
-		for (Integer footman : state.getFootmen()) {
+	AttackAction selectAction(GameState state, AttackAction priorAction) {
+		int footmen = state.getFootmanCount();
+		if (attackFootmen.length < footmen) {
+			attackFootmen = new int[footmen];
+			attackTargets = new int[footmen];
+		}
+
+		//compute the features and Q values of every footman/enemy pair at once
+		featureMatrix.compute(state, priorAction);
+		int enemyCount = state.getEnemyCount();
+		int pairs = state.getFootmanCount() * enemyCount;
+		if (qValues.length < pairs) {
+			qValues = new double[pairs];
+		}
+		calculateQValues(featureMatrix.getFeatures(), pairs, qValues);
+
+		for (int i = 0; i < state.getFootmanCount(); i++) {
+			int footmanSlot = state.getFootmanSlot(i);
 			
 			/*
 			 *Implementation of the epsilon-greedy strategy
 			 *Selects a random action when a random value is less than epsilon
 			 *This causes less random events to occur over time when epsilon is decreased
 			 */
-			if (!evaluationMode && (currentEpsilon > random.nextDouble())) {
+			if (!context.isEvaluationMode()
+					&& (context.getEpsilon() > context.getRandom().nextDouble())) {
 				//choose random enemy
-				int randEnemy = randInt(0, state.getEnemyFootmen().size() - 1);
+				int randEnemy = randInt(0, state.getEnemyCount() - 1);
 				
 				//plan to attack them
-				attack.put(footman, state.getEnemyFootmen().get(randEnemy));
+				attackFootmen[i] = footmanSlot;
+				attackTargets[i] = state.getEnemySlot(randEnemy);
 			} else {
 				double maxQ = Double.NEGATIVE_INFINITY;
-				int currentTarget = state.getEnemyFootmen().get(0);
+				int currentTarget = state.getEnemySlot(0);
 
 				// Find the enemy that gives the maximum Q function
-				for (Integer enemy : state.getEnemyFootmen()) {
-					double[] f = calculateFeatureVector(state, footman, enemy,
-							priorAction);
-					double curQ = calculateQValue(f);
+				for (int j = 0; j < enemyCount; j++) {
+					double curQ = qValues[i * enemyCount + j];
 					if (curQ > maxQ) {
 						maxQ = curQ;
-						currentTarget = enemy;
+						currentTarget = state.getEnemySlot(j);
 					}
 				}
 				
 				//choose to attack that enemy
-				attack.put(footman, currentTarget);
+				attackFootmen[i] = footmanSlot;
+				attackTargets[i] = currentTarget;
 			}
 		}
 
-		return new AttackAction(attack);
+		return new AttackAction(state, attackFootmen, attackTargets, footmen);
 	}
 
 	/**
@@ -613,38 +1308,236 @@ public class RLAgent extends Agent {
 	 * @param priorAction - the action taken in the prior state
 	 * @param footman - the footman who created the given values
 	 */
-	private void updateWeights(double reward, GameState currState, GameState priorState,
+	void updateWeights(double reward, GameState currState, GameState priorState,
 			AttackAction priorAction, Integer footman) {
 		//Determine prior features and Q value
 		double[] priorFeatures = calculateFeatureVector(priorState, footman,
-				priorAction.getAttack().get(footman), priorAction);
+				priorAction.getTarget(priorState, footman), priorAction);
 		double priorQValue = calculateQValue(priorFeatures);
 		
-		GameState currentState = new GameState(currState);
+		double[] currFeatureVector;
+		int footmanIndex = currState.indexOfFootman(footman);
+		if (footmanIndex >= 0) {
+			// Every living footman sees the same current state, so the action maximizing Q
+			// and the feature vectors are selected once per step and reused
+			memoizeGreedyAction(currState, priorAction);
+			currFeatureVector = memoFeatureVector;
+			System.arraycopy(memoFeatures, footmanIndex * numFeatures, currFeatureVector, 0,
+					numFeatures);
+		} else {
+			GameState currentState = paddedState;
+			currentState.copyFrom(currState);
 
-		// Any footman can be dead now, absent from currState
-		// We track that he has existed by adding him with a health of 0
-		if (!currentState.getFootmen().contains(footman)) {
+			// Any footman can be dead now, absent from currState
+			// We track that he has existed by adding him with a health of 0
+			int priorSlot = priorState.slotOf(footman);
 			currentState.footmenDeadCount++;
-			currentState.getFootmen().add(footman);
-			currentState.getUnitHealth().put(footman, 0);
-			currentState.getUnitLocations().put(footman,
-					priorState.getUnitLocations().get(footman));
-		}
+			currentState.addFootman(footman, 0, priorState.getX(priorSlot),
+					priorState.getY(priorSlot));
 
-		//Determine an action that maximizes the Q value at the state of the game
-		AttackAction curAction = selectAction(currentState, priorAction);
+			//Determine an action that maximizes the Q value at the state of the game
+			AttackAction curAction = selectAction(currentState, priorAction);
 
-		// Find Q(s',a') by getting the feature vector for the current state and the max Q value
-		double[] currFeatureVector = calculateFeatureVector(currentState,
-				footman, curAction.getAttack().get(footman), curAction);
+			// get the feature vector for the current state
+			currFeatureVector = calculateFeatureVector(currentState,
+					footman, curAction.getTarget(currentState, footman), curAction);
+		}
+
+		// Find Q(s',a') with the max Q value of the feature vector
 		double maxCurrQ = calculateQValue(currFeatureVector);
 
 		//Get the loss value from the loss function of the Q-function
-		double lossCalculated = (reward + (GAMMA * maxCurrQ) - priorQValue);
+		double lossCalculated = (reward + (gamma * maxCurrQ) - priorQValue);
 
 		// update the weight vector with the loss value and prior features at the given learning rate
-		updateWeights(priorFeatures, lossCalculated, ALPHA);
+		updateWeights(priorFeatures, lossCalculated, alpha);
+
+		//keep the transition to learn from it again later
+		if (replayBuffer != null) {
+			replayBuffer.add(priorFeatures, reward, currFeatureVector);
+		}
+	}
+
+	/**
+	 * Selects the action maximizing Q in the current state and the feature vector of every
+	 * living footman's part of it, unless they were already selected for the same state
+	 * version and prior action earlier in the step. Advancing to the next state changes its
+	 * version, so the memo never outlives its step.
+	 * 
+	 * @param currState - the current state
+	 * @param priorAction - the action taken in the prior state
+	 */
+	private void memoizeGreedyAction(GameState currState, AttackAction priorAction) {
+		if (memoState == currState && memoVersion == currState.getVersion()
+				&& memoPriorAction == priorAction) {
+			return;
+		}
+
+		//Determine an action that maximizes the Q value at the state of the game
+		AttackAction curAction = selectAction(currState, priorAction);
+
+		//the features of every footman attacking its target of that action
+		int footmen = currState.getFootmanCount();
+		if (memoFeatures.length < footmen * numFeatures) {
+			memoFeatures = new double[footmen * numFeatures];
+		}
+		featureMatrix.compute(currState, curAction);
+		for (int i = 0; i < footmen; i++) {
+			int enemy = featureMatrix.enemyIndex(currState,
+					curAction.getTargetBySlot(currState, currState.getFootmanSlot(i)));
+			System.arraycopy(featureMatrix.getFeatures(), featureMatrix.offset(i, enemy),
+					memoFeatures, i * numFeatures, numFeatures);
+		}
+
+		memoState = currState;
+		memoVersion = currState.getVersion();
+		memoPriorAction = priorAction;
+	}
+
+	/**
+	 * Updates the weights from the transitions of all footmen of the prior state at once.
+	 * 
+	 * Unlike updateWeights, which selects a whole new team action for every footman just to
+	 * find that footman's Q(s',a'), the features of all pairs are computed once for the prior
+	 * state and twice for the current state, once to find every footman's greedy target and
+	 * once for the features of the resulting action. Every footman that died is padded back
+	 * into the current state with no health, and a' is the greedy action without exploration.
+	 * All losses are computed with the same weights and applied in a single update.
+	 * 
+	 * @param rewards - the reward of each footman, in the order of the prior state's footmen
+	 * @param currState - the current state
+	 * @param priorState - the prior state
+	 * @param priorAction - the action taken in the prior state
+	 */
+	void updateWeightsBatch(double[] rewards, GameState currState, GameState priorState,
+			AttackAction priorAction) {
+		int footmen = priorState.getFootmanCount();
+		if (batchQValues.length < footmen) {
+			batchFeatures = new double[footmen * numFeatures];
+			batchNextFeatures = new double[footmen * numFeatures];
+			batchQValues = new double[footmen];
+			batchNextQValues = new double[footmen];
+			batchLosses = new double[footmen];
+		}
+
+		//the features and Q value of the action every footman took
+		featureMatrix.compute(priorState, priorAction);
+		for (int i = 0; i < footmen; i++) {
+			int enemy = featureMatrix.enemyIndex(priorState,
+					priorAction.getTargetBySlot(priorState, priorState.getFootmanSlot(i)));
+			System.arraycopy(featureMatrix.getFeatures(), featureMatrix.offset(i, enemy),
+					batchFeatures, i * numFeatures, numFeatures);
+		}
+		calculateQValues(batchFeatures, footmen, batchQValues);
+
+		//the current state with every footman that died tracked with a health of 0
+		GameState currentState = paddedState;
+		currentState.copyFrom(currState);
+		for (int i = 0; i < footmen; i++) {
+			int priorSlot = priorState.getFootmanSlot(i);
+			if (!currentState.containsFootman(priorState.getUnitId(priorSlot))) {
+				currentState.footmenDeadCount++;
+				currentState.addFootman(priorState.getUnitId(priorSlot), 0,
+						priorState.getX(priorSlot), priorState.getY(priorSlot));
+			}
+		}
+
+		int enemyCount = currentState.getEnemyCount();
+		if (enemyCount == 0) {
+			//no action remains to be taken
+			Arrays.fill(batchNextQValues, 0, footmen, 0);
+		} else {
+			//the greedy target of every footman
+			featureMatrix.compute(currentState, priorAction);
+			int pairs = currentState.getFootmanCount() * enemyCount;
+			if (qValues.length < pairs) {
+				qValues = new double[pairs];
+			}
+			calculateQValues(featureMatrix.getFeatures(), pairs, qValues);
+
+			int nextFootmen = currentState.getFootmanCount();
+			if (attackFootmen.length < nextFootmen) {
+				attackFootmen = new int[nextFootmen];
+				attackTargets = new int[nextFootmen];
+			}
+			for (int i = 0; i < nextFootmen; i++) {
+				int best = 0;
+				for (int j = 1; j < enemyCount; j++) {
+					if (qValues[i * enemyCount + j] > qValues[i * enemyCount + best]) {
+						best = j;
+					}
+				}
+				attackFootmen[i] = currentState.getFootmanSlot(i);
+				attackTargets[i] = currentState.getEnemySlot(best);
+			}
+			AttackAction greedyAttack = new AttackAction(currentState, attackFootmen, attackTargets,
+					nextFootmen);
+
+			// Find Q(s',a') of every footman from the features of the greedy action
+			featureMatrix.compute(currentState, greedyAttack);
+			for (int i = 0; i < footmen; i++) {
+				int footman = priorState.getUnitId(priorState.getFootmanSlot(i));
+				int footmanIndex = currentState.indexOfFootman(footman);
+				int enemy = featureMatrix.enemyIndex(currentState,
+						greedyAttack.getTarget(currentState, footman));
+				System.arraycopy(featureMatrix.getFeatures(), featureMatrix.offset(footmanIndex, enemy),
+						batchNextFeatures, i * numFeatures, numFeatures);
+			}
+			calculateQValues(batchNextFeatures, footmen, batchNextQValues);
+		}
+
+		//Get the loss values from the loss function of the Q-function
+		for (int i = 0; i < footmen; i++) {
+			batchLosses[i] = rewards[i] + (gamma * batchNextQValues[i]) - batchQValues[i];
+
+			//keep the transition to learn from it again later
+			if (replayBuffer != null) {
+				System.arraycopy(batchFeatures, i * numFeatures, replayFeatures, 0, numFeatures);
+				System.arraycopy(batchNextFeatures, i * numFeatures, replayNextFeatures, 0,
+						numFeatures);
+				replayBuffer.add(replayFeatures, rewards[i], replayNextFeatures);
+			}
+		}
+
+		updateWeights(batchFeatures, batchLosses, footmen, alpha);
+	}
+
+	/**
+	 * Updates the weights from a mini-batch of transitions sampled from the replay buffer.
+	 * 
+	 * The TD error of every sampled transition is recomputed with the current weights before
+	 * any of them is applied. With prioritized sampling the errors become the new priorities
+	 * of the transitions and each update is scaled by its importance sampling weight, so that
+	 * the transitions replayed more often do not bias the weights.
+	 */
+	private void replay() {
+		int batchSize = Math.min(replayBatchSize, replayBuffer.size());
+		int[] slots = replaySlots;
+		double[] losses = replayLosses;
+		double[] importance = replayImportance;
+		double maxImportance = 0;
+
+		for (int k = 0; k < batchSize; k++) {
+			int slot = replayPrioritized ? replayBuffer.samplePrioritized(context.getRandom())
+					: replayBuffer.sampleUniform(context.getRandom());
+			replayBuffer.getFeatures(slot, replayFeatures);
+			replayBuffer.getNextFeatures(slot, replayNextFeatures);
+
+			slots[k] = slot;
+			losses[k] = replayBuffer.getReward(slot) + (gamma * calculateQValue(replayNextFeatures))
+					- calculateQValue(replayFeatures);
+			importance[k] = replayPrioritized ? Math.pow(replayBuffer.size()
+					* replayBuffer.getProbability(slot), -IMPORTANCE_EXPONENT) : 1;
+			maxImportance = Math.max(maxImportance, importance[k]);
+		}
+
+		for (int k = 0; k < batchSize; k++) {
+			replayBuffer.getFeatures(slots[k], replayFeatures);
+			updateWeights(replayFeatures, losses[k] * importance[k] / maxImportance, alpha);
+			if (replayPrioritized) {
+				replayBuffer.updatePriority(slots[k], losses[k]);
+			}
+		}
 	}
 
 	/**
@@ -667,51 +1560,42 @@ public class RLAgent extends Agent {
 	 * @param footman - the footman to get the reward of
 	 * @return The reward of the given footman for the new state Q value
 	 */
-	private double calculateReward(GameState currState, GameState priorState,
+	double calculateReward(GameState currState, GameState priorState,
 			AttackAction priorAction, Integer footman) {
 		//Reward = -0.1 - footmanHP - footmanKilled + enemyHP + enemyKilled
 		double reward = -0.1;
 
-		//Update the attacking footman's location.
-		currState.getUnitLocations().put(
-				priorAction.getAttack().get(footman),
-				priorState.getUnitLocations().get(
-						priorAction.getAttack().get(footman)));
-
 		//Update reward based on footman's health.
-		if (!currState.getFootmen().contains(footman)) {
+		if (!currState.containsFootman(footman)) {
 			//Ally killed
 			reward -= 100.0;
 		} else {
 			//Ally injured
-			int healthLost = priorState.getUnitHealth().get(footman)
-					- currState.getUnitHealth().get(footman);
+			int healthLost = priorState.getHealth(priorState.slotOf(footman))
+					- currState.getHealth(currState.slotOf(footman));
 			reward -= healthLost;
 		}
 
 		//Gather the target of the given footman
-		Integer target = priorAction.getAttack().get(footman);
+		int target = priorAction.getTarget(priorState, footman);
 
-		//Get the locations of the footman and their target
-		if (!currState.getFootmen().contains(footman)) {
-			currState.getUnitLocations().put(footman,
-					priorState.getUnitLocations().get(footman));
-		}
-		if (!currState.getEnemyFootmen().contains(target)) {
-			currState.getUnitLocations().put(target,
-					priorState.getUnitLocations().get(target));
-		}
+		//Get the locations of the footman and their target,
+		//a dead footman is still where it was in the prior state and the target is
+		//located where the footman attacked it
+		GameState footmanState = currState.containsFootman(footman) ? currState : priorState;
+		int footmanSlot = footmanState.slotOf(footman);
+		int targetSlot = priorState.slotOf(target);
 
 		//Update reward based on enemy's health.
-		if (CoordPair.areAdjacent(currState.getUnitLocations().get(footman), currState
-				.getUnitLocations().get(target))) {
-			if (!currState.getEnemyFootmen().contains(target)) {
+		if (GameState.isAdjacent(footmanState.getX(footmanSlot), footmanState.getY(footmanSlot),
+				priorState.getX(targetSlot), priorState.getY(targetSlot))) {
+			if (!currState.containsEnemy(target)) {
 				//Enemy killed
 				reward += 100;
 			} else {
 				//Enemy injured
-				int healthLost = priorState.getUnitHealth().get(target) 
-						- currState.getUnitHealth().get(target);
+				int healthLost = priorState.getHealth(targetSlot) 
+						- currState.getHealth(currState.slotOf(target));
 				reward += healthLost;
 			}
 		}
@@ -728,14 +1612,70 @@ public class RLAgent extends Agent {
 	 * @return an integer inclusively between min and max
 	 * @see java.util.Random#nextInt(int)
 	 */
-	public static int randInt(int min, int max) {
+	public int randInt(int min, int max) {
 
 		// add 1 to nextInt to make it inclusive because it's usually exclusive
-		int randomNum = random.nextInt((max - min) + 1) + min;
+		int randomNum = context.getRandom().nextInt((max - min) + 1) + min;
 
 		return randomNum;
 	}
 
+	/**
+	 * Saves the feature weights along with the episode number, epsilon and the
+	 * learning constants as a new binary checkpoint.
+	 * 
+	 * @param episode - the number of episodes played with the weights
+	 */
+	void saveCheckpoint(int episode) {
+		try {
+			checkpoint.save(context.getWeights(), episode, context.getEpsilon(), alpha, gamma);
+		} catch (IOException ex) {
+			System.err.println("Failed to write weights checkpoint. Reason: "
+					+ ex.getMessage());
+		}
+	}
+
+	/**
+	 * Flushes and stops the background checkpoint writer, such as when a runner saved the
+	 * weights of its workers itself.
+	 */
+	void closeCheckpoints() {
+		if (checkpointWriter != null) {
+			checkpointWriter.close();
+		}
+	}
+
+	/**
+	 * Copies the weights into an array of boxed values, as used by saveWeights.
+	 * 
+	 * @param weights - the weights to copy
+	 * @return the boxed weights
+	 */
+	static Double[] boxWeights(double[] weights) {
+		Double[] boxed = new Double[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			boxed[i] = weights[i];
+		}
+		return boxed;
+	}
+
+	/**
+	 * Copies the boxed weights returned by loadWeights into a primitive array.
+	 * 
+	 * @param weights - the weights to copy, may be null
+	 * @return the primitive weights or null if no weights were given
+	 */
+	private static double[] unboxWeights(Double[] weights) {
+		if (weights == null) {
+			return null;
+		}
+		double[] unboxed = new double[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			unboxed[i] = weights[i];
+		}
+		return unboxed;
+	}
+
 	/**
 	 * DO NOT CHANGE THIS!
 	 *
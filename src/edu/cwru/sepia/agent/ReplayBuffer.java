@@ -0,0 +1,221 @@
+package edu.cwru.sepia.agent;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Random;
+
+/**
+ * A fixed-capacity ring of learning transitions stored off the Java heap, for experience replay.
+ * 
+ * Each transition holds the features of the action a footman took, the reward it received and
+ * the features of the greedy action in the following state, so its TD error can be recomputed
+ * with the current weights whenever it is replayed. The transitions are stored back to back in a
+ * direct buffer, so even a large buffer is never scanned by the garbage collector. Once the
+ * buffer is full every new transition overwrites the oldest one.
+ * 
+ * Transitions are sampled either uniformly or in proportion to their priority, the size of their
+ * last TD error raised to an exponent, by searching a sum tree over the priorities. A new
+ * transition is given the largest priority seen so far so that it is likely to be replayed
+ * at least once.
+ */
+public class ReplayBuffer {
+
+	//added to every TD error so that each transition can still be sampled
+	private static final double MIN_PRIORITY = 1e-6;
+
+	private final int capacity;
+	private final int featureCount;
+
+	//the number of values per transition: features, reward and next features
+	private final int stride;
+
+	//the transitions back to back, off the heap
+	private final DoubleBuffer transitions;
+
+	//sum tree of the priorities with the root at 1 and the leaf of transition i at leaves + i
+	private final double[] priorityTree;
+	private final int leaves;
+
+	//the exponent of the TD errors giving the priorities, 0 samples uniformly
+	private final double priorityExponent;
+	private double maxPriority = 1;
+
+	//the slot of the next transition and the number of transitions stored
+	private int next = 0;
+	private int size = 0;
+
+	/**
+	 * Allocates an empty buffer.
+	 * 
+	 * @param capacity - the number of transitions to keep
+	 * @param featureCount - the number of features of each action
+	 * @param priorityExponent - the power the TD errors are raised to for prioritized sampling
+	 */
+	public ReplayBuffer(int capacity, int featureCount, double priorityExponent) {
+		if (capacity <= 0 || featureCount <= 0) {
+			throw new IllegalArgumentException("The capacity and feature count must be positive.");
+		}
+		this.capacity = capacity;
+		this.featureCount = featureCount;
+		this.stride = 2 * featureCount + 1;
+		this.priorityExponent = priorityExponent;
+
+		long bytes = (long) capacity * stride * 8;
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A replay buffer of " + capacity
+					+ " transitions does not fit into a direct buffer.");
+		}
+		transitions = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder())
+				.asDoubleBuffer();
+
+		int treeLeaves = 1;
+		while (treeLeaves < capacity) {
+			treeLeaves <<= 1;
+		}
+		leaves = treeLeaves;
+		priorityTree = new double[2 * leaves];
+	}
+
+	/**
+	 * Stores a transition, overwriting the oldest one if the buffer is full.
+	 * 
+	 * @param features - the features of the action taken
+	 * @param reward - the reward received for the action
+	 * @param nextFeatures - the features of the greedy action in the following state
+	 * @return the slot of the transition
+	 */
+	public int add(double[] features, double reward, double[] nextFeatures) {
+		int slot = next;
+		int offset = slot * stride;
+		for (int i = 0; i < featureCount; i++) {
+			transitions.put(offset + i, features[i]);
+			transitions.put(offset + featureCount + 1 + i, nextFeatures[i]);
+		}
+		transitions.put(offset + featureCount, reward);
+
+		setPriority(slot, maxPriority);
+		next = (next + 1) % capacity;
+		size = Math.min(size + 1, capacity);
+		return slot;
+	}
+
+	/**
+	 * Picks a stored transition, each with the same probability.
+	 * 
+	 * @param random - the generator to sample with
+	 * @return the slot of the transition
+	 */
+	public int sampleUniform(Random random) {
+		checkNotEmpty();
+		return random.nextInt(size);
+	}
+
+	/**
+	 * Picks a stored transition with a probability proportional to its priority.
+	 * 
+	 * @param random - the generator to sample with
+	 * @return the slot of the transition
+	 */
+	public int samplePrioritized(Random random) {
+		checkNotEmpty();
+
+		//descend from the root towards the leaf whose range of the prefix sums holds the value
+		double value = random.nextDouble() * priorityTree[1];
+		int node = 1;
+		while (node < leaves) {
+			int left = 2 * node;
+			if (value < priorityTree[left] || priorityTree[left + 1] <= 0) {
+				node = left;
+			} else {
+				value -= priorityTree[left];
+				node = left + 1;
+			}
+		}
+
+		//guard against rounding landing past the last stored transition
+		return Math.min(node - leaves, size - 1);
+	}
+
+	/**
+	 * Sets the priority of a transition from the TD error it was last replayed with.
+	 * 
+	 * @param slot - the slot of the transition
+	 * @param tdError - the TD error of the transition under the current weights
+	 */
+	public void updatePriority(int slot, double tdError) {
+		double priority = Math.pow(Math.abs(tdError) + MIN_PRIORITY, priorityExponent);
+		maxPriority = Math.max(maxPriority, priority);
+		setPriority(slot, priority);
+	}
+
+	/**
+	 * Determines the probability of prioritized sampling picking a transition.
+	 * 
+	 * @param slot - the slot of the transition
+	 * @return the probability of the transition
+	 */
+	public double getProbability(int slot) {
+		return priorityTree[leaves + slot] / priorityTree[1];
+	}
+
+	/**
+	 * Copies the features of the action taken in a transition.
+	 * 
+	 * @param slot - the slot of the transition
+	 * @param features - receives the features
+	 */
+	public void getFeatures(int slot, double[] features) {
+		int offset = slot * stride;
+		for (int i = 0; i < featureCount; i++) {
+			features[i] = transitions.get(offset + i);
+		}
+	}
+
+	/**
+	 * Copies the features of the greedy action in the state following a transition.
+	 * 
+	 * @param slot - the slot of the transition
+	 * @param nextFeatures - receives the features
+	 */
+	public void getNextFeatures(int slot, double[] nextFeatures) {
+		int offset = slot * stride + featureCount + 1;
+		for (int i = 0; i < featureCount; i++) {
+			nextFeatures[i] = transitions.get(offset + i);
+		}
+	}
+
+	/**
+	 * @param slot - the slot of the transition
+	 * @return the reward received in the transition
+	 */
+	public double getReward(int slot) {
+		return transitions.get(slot * stride + featureCount);
+	}
+
+	//basic getters
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	//sets the priority of a leaf and sums the children of every node on the way to the root
+	//again, so rounding errors of earlier updates do not pile up as adding the change would
+	private void setPriority(int slot, double priority) {
+		int node = leaves + slot;
+		priorityTree[node] = priority;
+		for (node >>= 1; node >= 1; node >>= 1) {
+			priorityTree[node] = priorityTree[2 * node] + priorityTree[2 * node + 1];
+		}
+	}
+
+	private void checkNotEmpty() {
+		if (size == 0) {
+			throw new IllegalStateException("The replay buffer holds no transitions.");
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+import edu.cwru.sepia.environment.model.history.DamageLog;
+import edu.cwru.sepia.environment.model.history.DeathLog;
+import edu.cwru.sepia.environment.model.history.History;
+
+/**
+ * Attributes the rewards of the footmen to the damage and deaths that happened since the
+ * last reward, as SEPIA logs them in its history, instead of diffing the health of every
+ * unit between two states.
+ * 
+ * SEPIA has logged every turn before the current one by the time the agent sees it, so every
+ * step reads the damage and death logs of the turns since the last step and nothing older.
+ * The combat simulator records its attacks and deaths directly. Each footman is then given
+ * the damage it dealt and took itself:
+ * 
+ * Footman killed = -100, otherwise -damage taken
+ * 
+ * Enemy damaged by the footman killed = +100, otherwise +damage dealt to it
+ * 
+ * **Always lose 0.1 for time step
+ * 
+ * Computing the rewards only goes through the logged events, and clearing them only through
+ * the units they touched. The hits on each unit are linked together as they are recorded, so
+ * the kills are credited once per attacker by walking the hits on each dead unit.
+ */
+public class RewardLedger {
+
+	//the reward of every step, of a death and of a kill
+	private static final double STEP_REWARD = -0.1;
+	private static final double DEATH_REWARD = -100.0;
+	private static final double KILL_REWARD = 100.0;
+
+	//marks a unit without hits
+	private static final int NONE = -1;
+
+	//the damage events since the last reward, in the order they happened
+	private int[] attackers = new int[16];
+	private int[] defenders = new int[16];
+	private int[] damages = new int[16];
+	private int eventCount = 0;
+
+	//the previous hit on the same defender of each event, or NONE for its first hit
+	private int[] previousHits = new int[16];
+
+	//the units died since the last reward, the reward, the last hit and whether it is listed
+	//in touched of every unit, and the last kill each unit was credited with, indexed by id
+	private boolean[] dead = new boolean[0];
+	private double[] rewards = new double[0];
+	private int[] lastHits = new int[0];
+	private boolean[] listed = new boolean[0];
+	private int[] credited = new int[0];
+	private int deathCount = 0;
+
+	//the ids of the units with a death or reward to clear, each listed once
+	private int[] touched = new int[16];
+	private int touchedCount = 0;
+
+	//numbers the dead units whose kills are credited, 0 not being a kill
+	private int killNumber = 0;
+
+	//the first turn whose logs have not been read
+	private int nextTurn = 0;
+
+	/**
+	 * Forgets the events of the last game and starts reading logs at the given turn.
+	 * 
+	 * @param turn - the first turn of the new game
+	 */
+	public void begin(int turn) {
+		clear();
+		nextTurn = turn;
+	}
+
+	/**
+	 * Records the damage and deaths SEPIA logged in the turns before the given one that
+	 * were not read yet.
+	 * 
+	 * @param history - the history of the game as seen by the agent
+	 * @param turn - the current turn, whose logs are not complete yet
+	 */
+	public void read(History.HistoryView history, int turn) {
+		for (int t = nextTurn; t < turn; t++) {
+			for (DamageLog log : history.getDamageLogs(t)) {
+				recordDamage(log.getAttackerID(), log.getDefenderID(), log.getDamage());
+			}
+			for (DeathLog log : history.getDeathLogs(t)) {
+				recordDeath(log.getDeadUnitID());
+			}
+		}
+		nextTurn = Math.max(nextTurn, turn);
+	}
+
+	/**
+	 * Records an attack.
+	 * 
+	 * @param attacker - the id of the attacking unit
+	 * @param defender - the id of the damaged unit
+	 * @param damage - the health lost by the defender
+	 */
+	public void recordDamage(int attacker, int defender, int damage) {
+		if (eventCount == attackers.length) {
+			attackers = Arrays.copyOf(attackers, 2 * eventCount);
+			defenders = Arrays.copyOf(defenders, 2 * eventCount);
+			damages = Arrays.copyOf(damages, 2 * eventCount);
+			previousHits = Arrays.copyOf(previousHits, 2 * eventCount);
+		}
+		touch(attacker);
+		touch(defender);
+		attackers[eventCount] = attacker;
+		defenders[eventCount] = defender;
+		damages[eventCount] = damage;
+		previousHits[eventCount] = lastHits[defender];
+		lastHits[defender] = eventCount;
+		eventCount++;
+	}
+
+	/**
+	 * Records the death of a unit.
+	 * 
+	 * @param unit - the id of the dead unit
+	 */
+	public void recordDeath(int unit) {
+		touch(unit);
+		if (!dead[unit]) {
+			dead[unit] = true;
+			deathCount++;
+		}
+	}
+
+	/**
+	 * Determines if a significant event has happened since the last reward, whether a unit,
+	 * good or bad, has been harmed or has died.
+	 * 
+	 * @return whether any damage or death was recorded
+	 */
+	public boolean hasEvents() {
+		return eventCount > 0 || deathCount > 0;
+	}
+
+	/**
+	 * Attributes the recorded damage and deaths to the units, after which getReward gives
+	 * the reward of each footman.
+	 */
+	public void settle() {
+		for (int i = 0; i < touchedCount; i++) {
+			int unit = touched[i];
+			rewards[unit] = dead[unit] ? DEATH_REWARD : 0.0;
+		}
+
+		for (int i = 0; i < eventCount; i++) {
+			if (!dead[defenders[i]]) {
+				rewards[attackers[i]] += damages[i];
+				rewards[defenders[i]] -= damages[i];
+			}
+		}
+
+		//a kill counts once, however often the attacker hit the enemy
+		for (int i = 0; i < touchedCount; i++) {
+			int unit = touched[i];
+			if (!dead[unit]) {
+				continue;
+			}
+			killNumber++;
+			for (int hit = lastHits[unit]; hit != NONE; hit = previousHits[hit]) {
+				if (credited[attackers[hit]] != killNumber) {
+					credited[attackers[hit]] = killNumber;
+					rewards[attackers[hit]] += KILL_REWARD;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param footman - the id of the footman
+	 * @return the reward of the footman for the events since the last reward
+	 */
+	public double getReward(int footman) {
+		return footman < rewards.length ? STEP_REWARD + rewards[footman] : STEP_REWARD;
+	}
+
+	/**
+	 * Forgets the recorded events once they are rewarded.
+	 */
+	public void clear() {
+		for (int i = 0; i < touchedCount; i++) {
+			int unit = touched[i];
+			dead[unit] = false;
+			rewards[unit] = 0.0;
+			lastHits[unit] = NONE;
+			listed[unit] = false;
+		}
+		touchedCount = 0;
+		eventCount = 0;
+		deathCount = 0;
+	}
+
+	//grows the columns to the unit's id and remembers to clear it, once
+	private void touch(int unit) {
+		if (unit >= dead.length) {
+			int length = dead.length;
+			dead = Arrays.copyOf(dead, Math.max(2 * length, unit + 1));
+			rewards = Arrays.copyOf(rewards, dead.length);
+			lastHits = Arrays.copyOf(lastHits, dead.length);
+			Arrays.fill(lastHits, length, dead.length, NONE);
+			listed = Arrays.copyOf(listed, dead.length);
+			credited = Arrays.copyOf(credited, dead.length);
+		}
+		if (listed[unit]) {
+			return;
+		}
+		listed[unit] = true;
+		if (touchedCount == touched.length) {
+			touched = Arrays.copyOf(touched, 2 * touchedCount);
+		}
+		touched[touchedCount++] = unit;
+	}
+}
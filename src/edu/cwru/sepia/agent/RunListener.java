@@ -0,0 +1,17 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Told when an RLAgent has played all of the episodes of its run, in place of the agent
+ * ending the program. The agent has flushed its checkpoint by then but does not write its
+ * weights to the text file, the listener takes them from the agent, which can be restarted
+ * for another run.
+ */
+public interface RunListener {
+
+	/**
+	 * Called on the thread that played the last episode.
+	 * 
+	 * @param agent - the agent whose run finished
+	 */
+	void runFinished(RLAgent agent);
+}
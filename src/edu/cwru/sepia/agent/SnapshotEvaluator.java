@@ -0,0 +1,199 @@
+package edu.cwru.sepia.agent;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import edu.cwru.sepia.environment.Environment;
+
+/**
+ * Plays the evaluation games of a learning agent on a thread and environment of their own,
+ * so the learning agent can learn from every game instead of stopping for 5 of every 15.
+ * 
+ * The learning agents count every learning game they play with the evaluator, and every 10
+ * games counted, whichever agents played them, the agent counting the 10th publishes a copy of
+ * the weights, which nothing changes afterwards. Several workers learning the same weights can
+ * so share one evaluator and still get a snapshot per 10 learning games of the whole run. The
+ * evaluator copies the snapshot into the frozen weights of an agent of its own, which only
+ * plays evaluation games, plays 5 games with it and averages their rewards as the interleaved
+ * evaluation games would. The averages are taken in the order the snapshots were published,
+ * making up the learning curve.
+ * 
+ * The learning agents never wait for the evaluator while they learn, only when the run is
+ * over and the last snapshots still have to be evaluated.
+ */
+public class SnapshotEvaluator {
+
+	//the number of evaluation games played with every snapshot
+	public static final int GAMES = 5;
+
+	//the number of learning games between two snapshots
+	public static final int LEARNING_GAMES = 10;
+
+	/**
+	 * Plays one game with the agent of the evaluator.
+	 */
+	public interface GamePlayer {
+
+		void playGame() throws InterruptedException;
+	}
+
+	//the agent playing the evaluation games and its weights, overwritten by every snapshot
+	private final RLAgent agent;
+	private final double[] frozenWeights;
+	private GamePlayer player;
+
+	//the evaluations of the snapshots, in the order they were published
+	private final LinkedList<Future<Double>> pending = new LinkedList<Future<Double>>();
+	private final ExecutorService executor;
+
+	//the learning games counted since the evaluator was created
+	private int learningGames = 0;
+
+	/**
+	 * Creates an evaluator of the snapshots of the given agent, whose games are played by
+	 * the player its factory gives it.
+	 * 
+	 * @param learner - the learning agent whose weights are evaluated
+	 */
+	private SnapshotEvaluator(RLAgent learner) {
+		frozenWeights = new double[learner.getWeights().length];
+		agent = new RLAgent(learner.getPlayerNumber(), Integer.MAX_VALUE, frozenWeights,
+				learner.getOptions());
+		agent.freeze();
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "snapshot-evaluator");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Creates an evaluator playing the snapshots of the given agent in the combat simulator.
+	 * 
+	 * @param map - the loaded map
+	 * @param seed - the seed of the evaluator's simulator
+	 * @param learner - the learning agent whose weights are evaluated
+	 * @return the evaluator
+	 */
+	public static SnapshotEvaluator forSimulator(CombatMap map, long seed, RLAgent learner) {
+		final SnapshotEvaluator evaluator = new SnapshotEvaluator(learner);
+		final CombatSimulator simulator = new CombatSimulator(map, seed);
+		evaluator.player = new GamePlayer() {
+			@Override
+			public void playGame() {
+				simulator.playEpisode(evaluator.agent);
+			}
+		};
+		return evaluator;
+	}
+
+	/**
+	 * Creates an evaluator playing the snapshots of the given agent in SEPIA.
+	 * 
+	 * @param configuration - the loaded SEPIA configuration
+	 * @param seed - the seed of the evaluator's environment
+	 * @param learner - the learning agent whose weights are evaluated
+	 * @return the evaluator
+	 */
+	public static SnapshotEvaluator forSepia(TrainingConfiguration configuration, int seed,
+			RLAgent learner) {
+		SnapshotEvaluator evaluator = new SnapshotEvaluator(learner);
+		final Environment environment = configuration.createEnvironment(
+				new Agent[] { evaluator.agent, configuration.createEnemyAgent() }, seed);
+		evaluator.player = new GamePlayer() {
+			@Override
+			public void playGame() throws InterruptedException {
+				environment.runEpisode();
+			}
+		};
+		return evaluator;
+	}
+
+	/**
+	 * Counts a learning game played by any of the learning agents, and queues a snapshot of
+	 * the given weights every 10 games counted.
+	 * 
+	 * @param weights - the current weights of the learning agent
+	 */
+	public synchronized void countGame(double[] weights) {
+		learningGames++;
+		if (learningGames % LEARNING_GAMES == 0) {
+			submit(weights);
+		}
+	}
+
+	/**
+	 * Queues the evaluation of a snapshot of the given weights, which are copied at once.
+	 * 
+	 * @param weights - the current weights of the learning agent
+	 */
+	public synchronized void submit(double[] weights) {
+		final double[] snapshot = weights.clone();
+		pending.add(executor.submit(new Callable<Double>() {
+			@Override
+			public Double call() throws InterruptedException {
+				return evaluate(snapshot);
+			}
+		}));
+	}
+
+	/**
+	 * Takes the average rewards of the snapshots evaluated so far, stopping at the first one
+	 * still being evaluated so that they stay in order.
+	 * 
+	 * @return the average rewards, oldest first
+	 * @throws ExecutionException if an evaluation failed
+	 * @throws InterruptedException never, all taken evaluations are done
+	 */
+	public synchronized List<Double> takeFinished() throws ExecutionException, InterruptedException {
+		List<Double> rewards = new ArrayList<Double>();
+		while (!pending.isEmpty() && pending.getFirst().isDone()) {
+			rewards.add(pending.removeFirst().get());
+		}
+		return rewards;
+	}
+
+	/**
+	 * Waits for the evaluation of every queued snapshot and takes their average rewards.
+	 * 
+	 * @return the average rewards, oldest first
+	 * @throws ExecutionException if an evaluation failed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public synchronized List<Double> takeAll() throws ExecutionException, InterruptedException {
+		List<Double> rewards = new ArrayList<Double>();
+		while (!pending.isEmpty()) {
+			rewards.add(pending.getFirst().get());
+			pending.removeFirst();
+		}
+		return rewards;
+	}
+
+	/**
+	 * Stops the evaluator, dropping the snapshots not evaluated yet.
+	 */
+	public synchronized void close() {
+		executor.shutdownNow();
+		pending.clear();
+	}
+
+	//plays the evaluation games of a snapshot and averages their rewards
+	private double evaluate(double[] snapshot) throws InterruptedException {
+		System.arraycopy(snapshot, 0, frozenWeights, 0, frozenWeights.length);
+		agent.beginEvaluationRound();
+		for (int game = 0; game < GAMES; game++) {
+			player.playGame();
+		}
+		return agent.getEvaluationReward();
+	}
+}
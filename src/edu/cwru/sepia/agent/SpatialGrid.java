@@ -0,0 +1,246 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid index over the map holding the units of a game state, one cell per map tile.
+ * 
+ * The units of each cell are chained through their slots, so the index is rebuilt in time linear
+ * in the number of units and answers which units are adjacent to a position, how many enemies are
+ * within a Chebyshev radius and which enemy is nearest by looking only at the cells around the
+ * position instead of scanning every enemy.
+ * 
+ * The grid covers the map extent and grows to cover any unit found outside of it.
+ */
+public class SpatialGrid {
+
+	//marks the end of a cell's chain of units
+	private static final int EMPTY = -1;
+
+	//the position of the first cell and the size of the grid in cells
+	private int originX = 0;
+	private int originY = 0;
+	private int width = 0;
+	private int height = 0;
+
+	//the first unit slot of each cell, indexed by cell
+	private int[] cellHeads = new int[0];
+
+	//the next unit slot in the same cell, the cell and whether the unit is an enemy, indexed by slot
+	private int[] nextInCell = new int[0];
+	private int[] unitCells = new int[0];
+	private boolean[] enemy = new boolean[0];
+	private int unitCount = 0;
+
+	//the state the grid was built from
+	private GameState state;
+
+	/**
+	 * Indexes the units of the given state.
+	 * 
+	 * @param state - the state to index, which must not change while the grid is used
+	 * @param xExtent - the width of the map
+	 * @param yExtent - the height of the map
+	 */
+	public void build(GameState state, int xExtent, int yExtent) {
+		//empty only the cells used by the last build
+		for (int slot = 0; slot < unitCount; slot++) {
+			cellHeads[unitCells[slot]] = EMPTY;
+		}
+
+		this.state = state;
+		unitCount = state.getFootmanCount() + state.getEnemyCount();
+		if (nextInCell.length < unitCount) {
+			nextInCell = new int[unitCount];
+			unitCells = new int[unitCount];
+			enemy = new boolean[unitCount];
+		}
+
+		//cover the map and every unit
+		int minX = 0;
+		int minY = 0;
+		int maxX = xExtent - 1;
+		int maxY = yExtent - 1;
+		for (int slot = 0; slot < unitCount; slot++) {
+			minX = Math.min(minX, state.getX(slot));
+			minY = Math.min(minY, state.getY(slot));
+			maxX = Math.max(maxX, state.getX(slot));
+			maxY = Math.max(maxY, state.getY(slot));
+		}
+		originX = minX;
+		originY = minY;
+		width = maxX - minX + 1;
+		height = maxY - minY + 1;
+		if (cellHeads.length < width * height) {
+			cellHeads = new int[width * height];
+			Arrays.fill(cellHeads, EMPTY);
+		}
+
+		//chain every unit into its cell
+		for (int slot = 0; slot < unitCount; slot++) {
+			int cell = (state.getY(slot) - originY) * width + (state.getX(slot) - originX);
+			unitCells[slot] = cell;
+			nextInCell[slot] = cellHeads[cell];
+			cellHeads[cell] = slot;
+			enemy[slot] = false;
+		}
+		for (int i = 0; i < state.getEnemyCount(); i++) {
+			enemy[state.getEnemySlot(i)] = true;
+		}
+	}
+
+	/**
+	 * Finds the units adjacent to the given position, including any unit standing on it.
+	 * 
+	 * @param x - the x coordinate of the position
+	 * @param y - the y coordinate of the position
+	 * @param slots - receives the slots of the adjacent units, at least 9 long
+	 * @return the number of adjacent units
+	 */
+	public int getAdjacentUnits(int x, int y, int[] slots) {
+		return getUnitsWithinRadius(x, y, 1, false, slots);
+	}
+
+	/**
+	 * Counts the enemies adjacent to the given position.
+	 * 
+	 * @param x - the x coordinate of the position
+	 * @param y - the y coordinate of the position
+	 * @return the number of adjacent enemies
+	 */
+	public int getAdjacentEnemyCount(int x, int y) {
+		return getUnitsWithinRadius(x, y, 1, true, null);
+	}
+
+	/**
+	 * Finds the enemies within the given Chebyshev distance of a position.
+	 * 
+	 * @param x - the x coordinate of the position
+	 * @param y - the y coordinate of the position
+	 * @param radius - the largest distance of an enemy from the position
+	 * @param slots - receives the slots of the enemies, or null to only count them
+	 * @return the number of enemies within the radius
+	 */
+	public int getEnemiesWithinRadius(int x, int y, int radius, int[] slots) {
+		return getUnitsWithinRadius(x, y, radius, true, slots);
+	}
+
+	/**
+	 * Finds the enemy nearest to the given position by searching the rings of cells around it,
+	 * from the inside out. Once the rings would cover more cells than there are enemies, the
+	 * remaining enemies are scanned directly instead, so sparse armies far apart stay cheap.
+	 * Of several enemies at the same distance any one is returned.
+	 * 
+	 * @param x - the x coordinate of the position
+	 * @param y - the y coordinate of the position
+	 * @return the slot of the nearest enemy, or -1 if there are no enemies
+	 */
+	public int getNearestEnemy(int x, int y) {
+		if (state == null || state.getEnemyCount() == 0) {
+			return EMPTY;
+		}
+
+		//the ring reaching the farthest cell of the grid
+		int maxRadius = Math.max(Math.max(x - originX, originX + width - 1 - x),
+				Math.max(y - originY, originY + height - 1 - y));
+
+		int cellsSearched = 0;
+		for (int radius = 0; radius <= maxRadius; radius++) {
+			cellsSearched += radius == 0 ? 1 : 8 * radius;
+			if (cellsSearched > state.getEnemyCount()) {
+				return findNearestEnemy(x, y);
+			}
+
+			//the top and bottom rows of the ring
+			for (int dx = -radius; dx <= radius; dx++) {
+				int found = findEnemy(x + dx, y - radius);
+				if (found == EMPTY && radius > 0) {
+					found = findEnemy(x + dx, y + radius);
+				}
+				if (found != EMPTY) {
+					return found;
+				}
+			}
+
+			//the left and right columns between those rows
+			for (int dy = -radius + 1; dy < radius; dy++) {
+				int found = findEnemy(x - radius, y + dy);
+				if (found == EMPTY) {
+					found = findEnemy(x + radius, y + dy);
+				}
+				if (found != EMPTY) {
+					return found;
+				}
+			}
+		}
+		return EMPTY;
+	}
+
+	/**
+	 * Determines the Chebyshev distance from the given position to the nearest enemy.
+	 * 
+	 * @param x - the x coordinate of the position
+	 * @param y - the y coordinate of the position
+	 * @return the distance of the nearest enemy, or Integer.MAX_VALUE if there are no enemies
+	 */
+	public int getNearestEnemyDistance(int x, int y) {
+		int nearest = getNearestEnemy(x, y);
+		if (nearest == EMPTY) {
+			return Integer.MAX_VALUE;
+		}
+		return GameState.chebyshevDistance(x, y, state.getX(nearest), state.getY(nearest));
+	}
+
+	//collects the units or enemies in the square of cells within the radius of the position
+	private int getUnitsWithinRadius(int x, int y, int radius, boolean enemiesOnly, int[] slots) {
+		int fromX = Math.max(x - radius, originX) - originX;
+		int toX = Math.min(x + radius, originX + width - 1) - originX;
+		int fromY = Math.max(y - radius, originY) - originY;
+		int toY = Math.min(y + radius, originY + height - 1) - originY;
+
+		int count = 0;
+		for (int cy = fromY; cy <= toY; cy++) {
+			for (int cx = fromX; cx <= toX; cx++) {
+				for (int slot = cellHeads[cy * width + cx]; slot != EMPTY; slot = nextInCell[slot]) {
+					if (!enemiesOnly || enemy[slot]) {
+						if (slots != null) {
+							slots[count] = slot;
+						}
+						count++;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	//the nearest enemy found by scanning every enemy
+	private int findNearestEnemy(int x, int y) {
+		int nearest = EMPTY;
+		int nearestDistance = Integer.MAX_VALUE;
+		for (int i = 0; i < state.getEnemyCount(); i++) {
+			int slot = state.getEnemySlot(i);
+			int distance = GameState.chebyshevDistance(x, y, state.getX(slot), state.getY(slot));
+			if (distance < nearestDistance) {
+				nearest = slot;
+				nearestDistance = distance;
+			}
+		}
+		return nearest;
+	}
+
+	//the first enemy in the cell at the given position, or -1 if it holds none or is off the grid
+	private int findEnemy(int x, int y) {
+		int cx = x - originX;
+		int cy = y - originY;
+		if (cx < 0 || cy < 0 || cx >= width || cy >= height) {
+			return EMPTY;
+		}
+		for (int slot = cellHeads[cy * width + cx]; slot != EMPTY; slot = nextInCell[slot]) {
+			if (enemy[slot]) {
+				return slot;
+			}
+		}
+		return EMPTY;
+	}
+}
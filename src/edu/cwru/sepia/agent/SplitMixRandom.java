@@ -0,0 +1,104 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Random;
+
+/**
+ * A fast, splittable pseudo-random generator for a single thread, the SplitMix64 algorithm
+ * of java.util.SplittableRandom behind the interface of java.util.Random.
+ * 
+ * Each value is a mix of a counter that advances by a fixed odd gamma, so the generator is a
+ * plain long instead of Random's atomically updated seed, and split hands out a new generator
+ * with a seed and gamma drawn from this one whose stream is independent of it. It is not
+ * safe to share between threads; every agent owns its own generator and gives every worker
+ * it starts a split of it. Since it is a Random it can be handed to any code taking one.
+ */
+public class SplitMixRandom extends Random {
+	private static final long serialVersionUID = 3129385624376152317L;
+
+	//the gamma of the generators that are not split off another, the golden ratio
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	//the unit of the doubles made from 53 bits
+	private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+	//the counter the values are mixed from and how far it advances per value
+	private long state;
+	private final long gamma;
+
+	/**
+	 * @param seed - the seed of the generator, the same seed gives the same values
+	 */
+	public SplitMixRandom(long seed) {
+		this(seed, GOLDEN_GAMMA);
+	}
+
+	private SplitMixRandom(long seed, long gamma) {
+		super(seed);
+		this.state = seed;
+		this.gamma = gamma;
+	}
+
+	/**
+	 * Creates a new generator from the values of this one. The values of the two generators
+	 * are independent of each other.
+	 * 
+	 * @return the new generator
+	 */
+	public SplitMixRandom split() {
+		return new SplitMixRandom(nextLong(), mixGamma(nextSeed()));
+	}
+
+	@Override
+	public synchronized void setSeed(long seed) {
+		//also called by the constructor of Random
+		super.setSeed(seed);
+		state = seed;
+	}
+
+	@Override
+	protected int next(int bits) {
+		return (int) (mix64(nextSeed()) >>> (64 - bits));
+	}
+
+	@Override
+	public int nextInt() {
+		return mix32(nextSeed());
+	}
+
+	@Override
+	public long nextLong() {
+		return mix64(nextSeed());
+	}
+
+	@Override
+	public double nextDouble() {
+		return (mix64(nextSeed()) >>> 11) * DOUBLE_UNIT;
+	}
+
+	//advances the counter
+	private long nextSeed() {
+		return state += gamma;
+	}
+
+	//the 64 bit mix of a counter value, Stafford's variant 13
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	//the 32 bit mix of a counter value
+	private static int mix32(long z) {
+		z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+		return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+	}
+
+	//an odd gamma with enough bit transitions to give a good stream
+	private static long mixGamma(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		int transitions = Long.bitCount(z ^ (z >>> 1));
+		return transitions < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+	}
+}
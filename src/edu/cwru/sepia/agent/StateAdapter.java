@@ -0,0 +1,136 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+import edu.cwru.sepia.environment.model.state.State.StateView;
+import edu.cwru.sepia.environment.model.state.Template.TemplateView;
+import edu.cwru.sepia.environment.model.state.Unit.UnitView;
+
+/**
+ * Reads the footmen of a SEPIA state view into a game state.
+ * 
+ * At the start of a game the footman template of every player is looked up once by name and the
+ * ids of our footmen and of the enemy footmen are recorded, telling the two apart by the player
+ * owning each footman's template. Every step then only looks up those units by id, skipping the
+ * ones that died, instead of going through every unit, comparing template names and searching
+ * the list of our units for each of them.
+ * 
+ * No footmen are created during a game, so the units recorded at its start are all there are.
+ */
+public class StateAdapter {
+
+	//the name of the unit template of the footmen
+	private static final String FOOTMAN = "Footman";
+
+	//the player number of our footmen
+	private final int playernum;
+
+	//the ids of our footmen and of the enemy footmen at the start of the game
+	private int[] footmanIds = new int[0];
+	private int footmanCount = 0;
+	private int[] enemyIds = new int[0];
+	private int enemyCount = 0;
+
+	//the footman template ids of every player, indexed by template id
+	private boolean[] footmanTemplates = new boolean[0];
+
+	//the size of the map
+	private int xExtent;
+	private int yExtent;
+
+	//whether begin was called
+	private boolean begun = false;
+
+	/**
+	 * @param playernum - the player number of our footmen
+	 */
+	public StateAdapter(int playernum) {
+		this.playernum = playernum;
+	}
+
+	/**
+	 * Records the footmen of a new game.
+	 * 
+	 * @param stateView - the state at the start of the game
+	 */
+	public void begin(StateView stateView) {
+		xExtent = stateView.getXExtent();
+		yExtent = stateView.getYExtent();
+
+		//look up the footman template of every player
+		Arrays.fill(footmanTemplates, false);
+		for (Integer player : stateView.getPlayerNumbers()) {
+			TemplateView template = stateView.getTemplate(player, FOOTMAN);
+			if (template != null) {
+				if (template.getID() >= footmanTemplates.length) {
+					footmanTemplates = Arrays.copyOf(footmanTemplates, template.getID() + 1);
+				}
+				footmanTemplates[template.getID()] = true;
+			}
+		}
+
+		//record our footmen and the enemy footmen in the order of the state
+		footmanCount = 0;
+		enemyCount = 0;
+		for (UnitView unit : stateView.getAllUnits()) {
+			TemplateView template = unit.getTemplateView();
+			if (template.getID() >= footmanTemplates.length || !footmanTemplates[template.getID()]) {
+				continue;
+			}
+			if (template.getPlayer() == playernum) {
+				if (footmanCount == footmanIds.length) {
+					footmanIds = Arrays.copyOf(footmanIds, 2 * footmanCount + 1);
+				}
+				footmanIds[footmanCount++] = unit.getID();
+			} else {
+				if (enemyCount == enemyIds.length) {
+					enemyIds = Arrays.copyOf(enemyIds, 2 * enemyCount + 1);
+				}
+				enemyIds[enemyCount++] = unit.getID();
+			}
+		}
+		begun = true;
+	}
+
+	/**
+	 * Adds the living footmen of a state view with their health and location to a game state,
+	 * beginning a game with the state view if none was begun.
+	 * 
+	 * @param stateView - the state to read the footmen from
+	 * @param state - the cleared game state to add the footmen to
+	 */
+	public void read(StateView stateView, GameState state) {
+		if (!begun) {
+			begin(stateView);
+		}
+
+		state.setExtent(xExtent, yExtent);
+		for (int i = 0; i < footmanCount; i++) {
+			UnitView unit = stateView.getUnit(footmanIds[i]);
+			if (unit != null) {
+				state.addFootman(unit.getID(), unit.getHP(), unit.getXPosition(), unit.getYPosition());
+			}
+		}
+		for (int i = 0; i < enemyCount; i++) {
+			UnitView unit = stateView.getUnit(enemyIds[i]);
+			if (unit != null) {
+				state.addEnemy(unit.getID(), unit.getHP(), unit.getXPosition(), unit.getYPosition());
+			}
+		}
+	}
+
+	/**
+	 * Determines if any of our footmen are alive in a state view.
+	 * 
+	 * @param stateView - the state to check
+	 * @return whether one of our footmen is still alive
+	 */
+	public boolean hasFootmen(StateView stateView) {
+		for (int i = 0; i < footmanCount; i++) {
+			if (stateView.getUnit(footmanIds[i]) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,144 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Sparse tile coding of the footman/enemy pairs, a feature extractor for the sparse feature mode.
+ * 
+ * Each pair is a point in three dimensions: the ratio of the footman's health to the enemy's,
+ * the distance between them and the number of enemies adjacent to the footman. Every tiling
+ * cuts this space into a grid of tiles, each tiling shifted against the others by a fraction
+ * of a tile, and a pair activates the one tile of every tiling it falls into. Instead of dense
+ * values the extractor writes the weight indices of the active tiles, one per tiling, so the
+ * Q value of a pair is the sum of the weights of its active tiles and an update only touches
+ * those weights.
+ * 
+ * Distances and adjacent enemy counts are whole numbers, so their part of the tile index is
+ * looked up in a table made once for every tiling.
+ */
+public class TileCoder extends FeatureExtractor {
+
+	//the ranges of the dimensions, values beyond them fall into the outermost tiles
+	private static final double MAX_HEALTH_RATIO = 4;
+	private static final int MAX_DISTANCE = 16;
+	private static final int MAX_ADJACENT_ENEMIES = 8;
+
+	//how far each dimension is shifted per tiling, odd so that the tilings are not aligned
+	private static final int RATIO_DISPLACEMENT = 1;
+	private static final int DISTANCE_DISPLACEMENT = 3;
+	private static final int ADJACENT_DISPLACEMENT = 5;
+
+	private final int tilings;
+	private final int tiles;
+
+	//the number of tiles of each dimension of a tiling, one more than tiles to cover the shifts
+	private final int positions;
+	private final int tilesPerTiling;
+
+	//the shift of the health ratio of each tiling, a fraction of a tile
+	private final double[] ratioShifts;
+
+	//the part of the tile index given by the tiling and distance, [tiling][distance],
+	//and by the adjacent enemy count, [tiling][count]
+	private final int[] distanceParts;
+	private final int[] adjacentParts;
+
+	/**
+	 * @param tilings - the number of tilings, the number of tiles active for every pair
+	 * @param tiles - the number of tiles across each dimension of a tiling
+	 */
+	public TileCoder(int tilings, int tiles) {
+		super("tiles", tilings, DISTANCES | ADJACENCY);
+		if (tilings <= 0 || tiles <= 0) {
+			throw new IllegalArgumentException("The number of tilings and tiles must be positive.");
+		}
+		this.tilings = tilings;
+		this.tiles = tiles;
+		this.positions = tiles + 1;
+		this.tilesPerTiling = positions * positions * positions;
+
+		ratioShifts = new double[tilings];
+		distanceParts = new int[tilings * (MAX_DISTANCE + 1)];
+		adjacentParts = new int[tilings * (MAX_ADJACENT_ENEMIES + 1)];
+		for (int t = 0; t < tilings; t++) {
+			ratioShifts[t] = shift(t, RATIO_DISPLACEMENT);
+			for (int d = 0; d <= MAX_DISTANCE; d++) {
+				int tile = (int) (scale(d, MAX_DISTANCE) + shift(t, DISTANCE_DISPLACEMENT));
+				distanceParts[t * (MAX_DISTANCE + 1) + d] = t * tilesPerTiling + tile * positions;
+			}
+			for (int a = 0; a <= MAX_ADJACENT_ENEMIES; a++) {
+				int tile = (int) (scale(a, MAX_ADJACENT_ENEMIES) + shift(t, ADJACENT_DISPLACEMENT));
+				adjacentParts[t * (MAX_ADJACENT_ENEMIES + 1) + a] = tile;
+			}
+		}
+	}
+
+	@Override
+	public void extract(FeatureMatrix matrix, GameState state, int footman, double[] features,
+			int feature) {
+		int footmanHealth = state.getHealth(matrix.getFootmanSlot(footman));
+		int adjacent = Math.min(matrix.getAdjacentEnemyCount(footman), MAX_ADJACENT_ENEMIES);
+		int ratioStride = positions * positions;
+
+		int offset = matrix.offset(footman, 0) + feature;
+		for (int j = 0; j < matrix.getEnemyCount(); j++, offset += matrix.getFeatureCount()) {
+			int enemyHealth = state.getHealth(matrix.getEnemySlot(j));
+			double ratio = scale((double) footmanHealth / Math.max(enemyHealth, 1), MAX_HEALTH_RATIO);
+			int distance = Math.min(matrix.getDistance(footman, j), MAX_DISTANCE);
+
+			for (int t = 0; t < tilings; t++) {
+				int ratioTile = (int) (ratio + ratioShifts[t]);
+				features[offset + t] = ratioTile * ratioStride
+						+ distanceParts[t * (MAX_DISTANCE + 1) + distance]
+						+ adjacentParts[t * (MAX_ADJACENT_ENEMIES + 1) + adjacent];
+			}
+		}
+	}
+
+	/**
+	 * @return the number of weights of all tiles of all tilings
+	 */
+	public int getTileCount() {
+		return tilings * tilesPerTiling;
+	}
+
+	/**
+	 * Sums the weights of the tiles active in a feature vector.
+	 * 
+	 * @param weights - the weight of every tile
+	 * @param features - the feature vectors holding the indices of the active tiles
+	 * @param offset - where the feature vector starts
+	 * @return the Q value of the feature vector
+	 */
+	public double dot(double[] weights, double[] features, int offset) {
+		double q = 0;
+		for (int t = 0; t < tilings; t++) {
+			q += weights[(int) features[offset + t]];
+		}
+		return q;
+	}
+
+	/**
+	 * Moves the weights of the tiles active in a feature vector, splitting the step between
+	 * the tilings so that the Q value of the vector moves by the given step.
+	 * 
+	 * @param weights - the weight of every tile
+	 * @param features - the feature vectors holding the indices of the active tiles
+	 * @param offset - where the feature vector starts
+	 * @param step - the change of the Q value, the learning rate times the loss
+	 */
+	public void update(double[] weights, double[] features, int offset, double step) {
+		double tileStep = step / tilings;
+		for (int t = 0; t < tilings; t++) {
+			weights[(int) features[offset + t]] += tileStep;
+		}
+	}
+
+	//the position of a value in its range, in tiles
+	private double scale(double value, double max) {
+		return Math.min(Math.max(value / max, 0), 1) * tiles;
+	}
+
+	//the shift of a dimension in a tiling, a fraction of a tile
+	private double shift(int tiling, int displacement) {
+		return (double) tiling * displacement / tilings % 1;
+	}
+}
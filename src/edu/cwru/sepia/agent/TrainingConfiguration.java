@@ -0,0 +1,149 @@
+package edu.cwru.sepia.agent;
+
+import java.io.File;
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+import edu.cwru.sepia.environment.Environment;
+import edu.cwru.sepia.environment.model.SimpleModel;
+import edu.cwru.sepia.environment.model.persistence.generated.XmlState;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.StateCreator;
+import edu.cwru.sepia.environment.model.state.XmlStateCreator;
+import edu.cwru.sepia.experiment.Configuration;
+import edu.cwru.sepia.experiment.ConfigurationValues;
+import edu.cwru.sepia.util.config.xml.XmlAgentParameters;
+import edu.cwru.sepia.util.config.xml.XmlConfiguration;
+import edu.cwru.sepia.util.config.xml.XmlKeyValuePair;
+import edu.cwru.sepia.util.config.xml.XmlModelParameters;
+
+/**
+ * A SEPIA configuration file (such as data/10fv10fConfig.xml) loaded once so that any number of
+ * independent environments can be created from it in the same JVM.
+ * 
+ * The map, the model parameters and the arguments of the RLAgent player are read the same way
+ * SEPIA's own Main does, but instead of handing them to a single episodic runner, every call to
+ * createEnvironment builds a fresh model and environment around the given agents.
+ */
+public class TrainingConfiguration {
+
+	//the parsed configuration and its map
+	private final XmlConfiguration xmlConfiguration;
+	private final XmlState map;
+
+	//the model parameters shared by every environment
+	private final Configuration modelConfiguration = new Configuration();
+
+	//the player number and arguments of the learning agent
+	private int playernum = 0;
+	private String[] agentArguments = new String[0];
+
+	private TrainingConfiguration(XmlConfiguration xmlConfiguration, XmlState map) {
+		this.xmlConfiguration = xmlConfiguration;
+		this.map = map;
+
+		//copy the model parameters like SEPIA's Main
+		XmlModelParameters modelParameters = xmlConfiguration.getModelParameters();
+		if (modelParameters != null) {
+			modelConfiguration.put(ConfigurationValues.MODEL_CONQUEST.key, modelParameters.isConquest());
+			modelConfiguration.put(ConfigurationValues.MODEL_MIDAS.key, modelParameters.isMidas());
+			modelConfiguration.put(ConfigurationValues.MODEL_MANIFEST_DESTINY.key,
+					modelParameters.isManifestDestiny());
+			modelConfiguration.put(ConfigurationValues.MODEL_TIME_LIMIT.key, modelParameters.getTimeLimit());
+			for (XmlKeyValuePair requirement : modelParameters.getRequirement()) {
+				modelConfiguration.put(requirement.getName(), requirement.getValue());
+			}
+		}
+
+		//find the learning agent among the players
+		for (XmlAgentParameters player : xmlConfiguration.getPlayer()) {
+			if (RLAgent.class.getName().equals(player.getAgentClass().getClassName())) {
+				playernum = player.getId();
+				List<String> arguments = player.getAgentClass().getArgument();
+				agentArguments = arguments.toArray(new String[arguments.size()]);
+			}
+		}
+	}
+
+	/**
+	 * Loads the given SEPIA configuration file and the map it refers to.
+	 * 
+	 * @param path - the path of the configuration file
+	 * @return the loaded configuration
+	 * @throws JAXBException if the configuration or map file is not valid
+	 */
+	public static TrainingConfiguration load(String path) throws JAXBException {
+		XmlConfiguration xmlConfiguration = (XmlConfiguration) JAXBContext
+				.newInstance(XmlConfiguration.class).createUnmarshaller()
+				.unmarshal(new File(path));
+		XmlState map = (XmlState) JAXBContext.newInstance(XmlState.class)
+				.createUnmarshaller().unmarshal(new File(xmlConfiguration.getMap()));
+		return new TrainingConfiguration(xmlConfiguration, map);
+	}
+
+	/**
+	 * Creates a new environment for the given agents on the configured map.
+	 * Every environment has its own model and state, so environments can run on separate threads.
+	 * 
+	 * @param agents - the agents playing in the environment
+	 * @param seed - the seed of the environment's model
+	 * @return the new environment
+	 */
+	public Environment createEnvironment(Agent[] agents, int seed) {
+		//the map is shared, so states are created from it one at a time
+		StateCreator stateCreator = new SynchronizedStateCreator(new XmlStateCreator(map), map);
+		SimpleModel model = new SimpleModel(stateCreator.createState(), seed,
+				stateCreator, modelConfiguration);
+		return new Environment(agents, model, seed);
+	}
+
+	/**
+	 * Creates the scripted enemy agent that plays against the learning agent.
+	 * 
+	 * @return a new combat agent for the enemy player
+	 */
+	public Agent createEnemyAgent() {
+		//attack the learning agent's player, without wandering when idle and without logging
+		return new CombatAgent(RLAgent.ENEMY_PLAYERNUM,
+				new String[] { String.valueOf(playernum), "false", "false" });
+	}
+
+	//basic getters
+
+	public String getMapPath() {
+		return xmlConfiguration.getMap();
+	}
+
+	public int getPlayerNumber() {
+		return playernum;
+	}
+
+	public String[] getAgentArguments() {
+		return agentArguments.clone();
+	}
+
+	/**
+	 * Creates states from the shared map one at a time, since every environment's model
+	 * asks for a new state at the start of each of its episodes.
+	 */
+	private static class SynchronizedStateCreator implements StateCreator {
+		private static final long serialVersionUID = 1L;
+
+		private final StateCreator stateCreator;
+		private final Object lock;
+
+		SynchronizedStateCreator(StateCreator stateCreator, Object lock) {
+			this.stateCreator = stateCreator;
+			this.lock = lock;
+		}
+
+		@Override
+		public State createState() {
+			synchronized (lock) {
+				return stateCreator.createState();
+			}
+		}
+	}
+}
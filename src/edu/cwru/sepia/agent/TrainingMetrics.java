@@ -0,0 +1,228 @@
+package edu.cwru.sepia.agent;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts the steps, episodes and wins of training and records how long each phase of a step
+ * takes in a LatencyHistogram, to see where the time of a long run goes without a profiler.
+ * 
+ * A phase is timed by taking the time before it with time and handing it to record afterwards,
+ * which returns the time the phase ended so the next phase can be timed from it. Metrics that
+ * are not enabled skip reading the clock altogether, so an agent without them pays only for a
+ * branch per phase. The counters take no locks, so the workers of one run can share a single
+ * instance. It is published over JMX with register and over HTTP with a MetricsServer.
+ */
+public class TrainingMetrics implements TrainingMetricsMXBean {
+
+	//the phases of a step: reading the state, detecting events, calculating rewards,
+	//updating the weights and selecting the next action
+	public static final int STATE = 0;
+	public static final int EVENTS = 1;
+	public static final int REWARD = 2;
+	public static final int UPDATE = 3;
+	public static final int SELECT = 4;
+
+	//the names of the phases, indexed by phase
+	public static final String[] PHASES = { "state", "events", "reward", "update", "select" };
+
+	//metrics that record nothing, for agents without metrics
+	public static final TrainingMetrics DISABLED = new TrainingMetrics(false);
+
+	//numbers the registered metrics of this JVM, so that agents of the same player never
+	//share a name
+	private static final AtomicInteger REGISTRATIONS = new AtomicInteger();
+
+	private final boolean enabled;
+	private final LatencyHistogram[] latencies = new LatencyHistogram[PHASES.length];
+
+	private final AtomicLong steps = new AtomicLong();
+	private final AtomicLong episodes = new AtomicLong();
+	private final AtomicLong gamesWon = new AtomicLong();
+	private volatile double epsilon;
+
+	//when the metrics were created, in nanoseconds
+	private final long start = System.nanoTime();
+
+	//the name the metrics are registered with over JMX, null if they are not
+	private ObjectName name;
+
+	/**
+	 * @param enabled - whether to record anything at all
+	 */
+	public TrainingMetrics(boolean enabled) {
+		this.enabled = enabled;
+		for (int i = 0; i < latencies.length; i++) {
+			latencies[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Gets the time a phase starts at.
+	 * 
+	 * @return the current time in nanoseconds, 0 if the metrics are not enabled
+	 */
+	public long time() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records the latency of a phase that just ended.
+	 * 
+	 * @param phase - the phase, one of the constants above
+	 * @param start - the time the phase started, as given by time
+	 * @return the current time in nanoseconds, the start of the next phase
+	 */
+	public long record(int phase, long start) {
+		if (!enabled) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		latencies[phase].record(now - start);
+		return now;
+	}
+
+	/**
+	 * Counts a step of a game.
+	 */
+	public void recordStep() {
+		if (enabled) {
+			steps.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Counts a finished game.
+	 * 
+	 * @param won - whether the agent won the game
+	 * @param epsilon - the exploration rate the game was played with
+	 */
+	public void recordEpisode(boolean won, double epsilon) {
+		if (enabled) {
+			episodes.incrementAndGet();
+			if (won) {
+				gamesWon.incrementAndGet();
+			}
+			this.epsilon = epsilon;
+		}
+	}
+
+	/**
+	 * @param phase - the phase, one of the constants above
+	 * @return the latencies of the phase
+	 */
+	public LatencyHistogram getLatency(int phase) {
+		return latencies[phase];
+	}
+
+	@Override
+	public long getSteps() {
+		return steps.get();
+	}
+
+	@Override
+	public long getEpisodes() {
+		return episodes.get();
+	}
+
+	@Override
+	public long getGamesWon() {
+		return gamesWon.get();
+	}
+
+	@Override
+	public double getWinRate() {
+		long played = episodes.get();
+		return played == 0 ? 0 : (double) gamesWon.get() / played;
+	}
+
+	@Override
+	public double getEpsilon() {
+		return epsilon;
+	}
+
+	@Override
+	public double getStepsPerSecond() {
+		return steps.get() / getUptimeSeconds();
+	}
+
+	@Override
+	public double getEpisodesPerSecond() {
+		return episodes.get() / getUptimeSeconds();
+	}
+
+	/**
+	 * @return the seconds since the metrics were created
+	 */
+	public double getUptimeSeconds() {
+		return Math.max(System.nanoTime() - start, 1) / 1e9;
+	}
+
+	@Override
+	public Map<String, Double> getLatencyMicros() {
+		Map<String, Double> micros = new LinkedHashMap<String, Double>();
+		for (int i = 0; i < PHASES.length; i++) {
+			LatencyHistogram latency = latencies[i];
+			micros.put(PHASES[i] + ".mean", latency.getMean() / 1e3);
+			micros.put(PHASES[i] + ".p50", latency.getValueAtPercentile(50) / 1e3);
+			micros.put(PHASES[i] + ".p90", latency.getValueAtPercentile(90) / 1e3);
+			micros.put(PHASES[i] + ".p99", latency.getValueAtPercentile(99) / 1e3);
+			micros.put(PHASES[i] + ".max", latency.getMax() / 1e3);
+		}
+		return micros;
+	}
+
+	@Override
+	public void resetLatencies() {
+		for (LatencyHistogram latency : latencies) {
+			latency.reset();
+		}
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, named by the player number of
+	 * the agent and an id unique in this JVM, such as
+	 * edu.cwru.sepia.agent:type=TrainingMetrics,player=0,id=1, so that the agents of a sweep
+	 * or of many runs each publish their own. Metrics already registered keep their name.
+	 * 
+	 * @param playernum - the player number of the agent
+	 */
+	public synchronized void register(int playernum) {
+		if (name != null) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName("edu.cwru.sepia.agent:type=TrainingMetrics,player="
+					+ playernum + ",id=" + REGISTRATIONS.incrementAndGet());
+			server.registerMBean(this, objectName);
+			name = objectName;
+		} catch (JMException ex) {
+			System.err.println("Failed to register the training metrics. Reason: "
+					+ ex.getMessage());
+		}
+	}
+
+	/**
+	 * Removes the metrics from the platform MBean server if they were registered. Their name
+	 * is their own, so no other metrics are removed.
+	 */
+	public synchronized void unregister() {
+		if (name == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException ex) {
+			// already gone
+		}
+		name = null;
+	}
+}
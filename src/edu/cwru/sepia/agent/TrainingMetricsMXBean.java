@@ -0,0 +1,34 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Map;
+
+/**
+ * The training metrics of an agent as seen over JMX, for example in JConsole.
+ */
+public interface TrainingMetricsMXBean {
+
+	long getSteps();
+
+	long getEpisodes();
+
+	long getGamesWon();
+
+	double getWinRate();
+
+	double getEpsilon();
+
+	double getStepsPerSecond();
+
+	double getEpisodesPerSecond();
+
+	/**
+	 * @return the mean, median, 90th, 99th percentile and largest latency of every phase of a
+	 * step in microseconds, keyed as phase.statistic, such as "update.p99"
+	 */
+	Map<String, Double> getLatencyMicros();
+
+	/**
+	 * Forgets the recorded latencies while keeping the counts.
+	 */
+	void resetLatencies();
+}
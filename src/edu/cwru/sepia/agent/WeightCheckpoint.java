@@ -0,0 +1,243 @@
+package edu.cwru.sepia.agent;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A ring of binary weight checkpoints kept in a directory.
+ * 
+ * Every checkpoint is a small header followed by the raw weights:
+ * 
+ *	magic (int), format version (int), feature count (int), episode number (int),
+ *	sequence number (long), epsilon (double), alpha (double), gamma (double),
+ *	then one double per feature
+ * 
+ * A checkpoint is written to a temporary file, forced to the disk and then atomically renamed
+ * over the oldest of the retained snapshots, so a reader never sees a partly written
+ * checkpoint and the weights keep their full precision. The snapshot with the highest
+ * sequence number is the latest one. Snapshots are written and read through their channels
+ * rather than memory-mapped, since a file still mapped cannot be renamed over on Windows.
+ * 
+ * Any number of agents, in this JVM or in other processes, may write to the same directory:
+ * a save holds an exclusive lock on the directory's lock file while it picks the next
+ * sequence number from the snapshots on disk and writes, so writers take turns in the ring
+ * instead of overwriting each other's slots and temporary files.
+ */
+public class WeightCheckpoint {
+
+	//identifies a weight checkpoint file, "RLWC"
+	private static final int MAGIC = 0x524C5743;
+	private static final int VERSION = 1;
+
+	//size of the header in bytes
+	private static final int HEADER_SIZE = 4 * 4 + 8 + 3 * 8;
+
+	//the file locked while saving, and the lock of the writers of this JVM, which a file
+	//lock does not keep apart
+	private static final String LOCK_FILE = "weights.lock";
+	private static final Object JVM_LOCK = new Object();
+
+	//directory holding the snapshots and how many of them are kept
+	private final File directory;
+	private final int retained;
+
+	//sequence number of the latest snapshot written or found
+	private long sequence = 0;
+
+	/**
+	 * A weight vector read from a checkpoint along with the values stored in its header.
+	 */
+	public static class Snapshot {
+		public final double[] weights;
+		public final int episode;
+		public final long sequence;
+		public final double epsilon;
+		public final double alpha;
+		public final double gamma;
+
+		public Snapshot(double[] weights, int episode, long sequence, double epsilon,
+				double alpha, double gamma) {
+			this.weights = weights;
+			this.episode = episode;
+			this.sequence = sequence;
+			this.epsilon = epsilon;
+			this.alpha = alpha;
+			this.gamma = gamma;
+		}
+	}
+
+	/**
+	 * Opens a ring of checkpoints in the given directory, continuing the sequence
+	 * of any snapshots already there.
+	 * 
+	 * @param directory - the directory holding the snapshots
+	 * @param retained - the number of snapshots to keep
+	 */
+	public WeightCheckpoint(File directory, int retained) {
+		this.directory = directory;
+		this.retained = Math.max(retained, 1);
+
+		Snapshot latest = loadLatest();
+		if (latest != null) {
+			sequence = latest.sequence;
+		}
+	}
+
+	/**
+	 * Writes a new snapshot, replacing the oldest retained one.
+	 * 
+	 * @param weights - the weights to save
+	 * @param episode - the episode the weights were saved after
+	 * @param epsilon - the current exploration value
+	 * @param alpha - the learning rate
+	 * @param gamma - the discount factor
+	 * @throws IOException if the snapshot could not be written
+	 */
+	public synchronized void save(double[] weights, int episode, double epsilon,
+			double alpha, double gamma) throws IOException {
+		directory.mkdirs();
+		synchronized (JVM_LOCK) {
+			try (FileChannel lockChannel = FileChannel.open(new File(directory, LOCK_FILE).toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				FileLock lock = lockChannel.lock();
+				try {
+					write(weights, episode, epsilon, alpha, gamma);
+				} finally {
+					lock.release();
+				}
+			}
+		}
+	}
+
+	//writes the snapshot following the latest one on disk, holding the directory's lock
+	private void write(double[] weights, int episode, double epsilon, double alpha, double gamma)
+			throws IOException {
+		long next = Math.max(sequence, latestSequence()) + 1;
+		Path target = snapshotFile(next).toPath();
+		Path temp = new File(directory, target.getFileName() + ".tmp").toPath();
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 8 * weights.length)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(weights.length);
+		buffer.putInt(episode);
+		buffer.putLong(next);
+		buffer.putDouble(epsilon);
+		buffer.putDouble(alpha);
+		buffer.putDouble(gamma);
+		buffer.asDoubleBuffer().put(weights);
+		buffer.clear();
+
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+
+		//publish the finished snapshot in one step
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		sequence = next;
+	}
+
+	/**
+	 * Finds the latest valid snapshot of the ring.
+	 * 
+	 * @return the latest snapshot, or null if there is none
+	 */
+	public synchronized Snapshot loadLatest() {
+		Snapshot latest = null;
+		for (int i = 0; i < retained; i++) {
+			Snapshot snapshot = read(new File(directory, "weights-" + i + ".bin"));
+			if (snapshot != null && (latest == null || snapshot.sequence > latest.sequence)) {
+				latest = snapshot;
+			}
+		}
+		return latest;
+	}
+
+	//the highest sequence number of the snapshots on disk, read from their headers only
+	private long latestSequence() {
+		long latest = 0;
+		for (int i = 0; i < retained; i++) {
+			File file = new File(directory, "weights-" + i + ".bin");
+			if (!file.isFile() || file.length() < HEADER_SIZE) {
+				continue;
+			}
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				ByteBuffer buffer = readFully(channel, HEADER_SIZE);
+				if (buffer != null && buffer.getInt() == MAGIC && buffer.getInt() == VERSION) {
+					buffer.getInt();
+					buffer.getInt();
+					latest = Math.max(latest, buffer.getLong());
+				}
+			} catch (IOException ex) {
+				//an unreadable snapshot is the first to be replaced
+			}
+		}
+		return latest;
+	}
+
+	/**
+	 * Reads a single snapshot file.
+	 * 
+	 * @param file - the snapshot file
+	 * @return the snapshot, or null if the file does not exist or is not a valid checkpoint
+	 */
+	public static Snapshot read(File file) {
+		if (!file.isFile() || file.length() < HEADER_SIZE) {
+			return null;
+		}
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = readFully(channel, (int) channel.size());
+			if (buffer == null || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				return null;
+			}
+			int featureCount = buffer.getInt();
+			int episode = buffer.getInt();
+			long sequence = buffer.getLong();
+			double epsilon = buffer.getDouble();
+			double alpha = buffer.getDouble();
+			double gamma = buffer.getDouble();
+			if (featureCount < 0 || buffer.remaining() < 8L * featureCount) {
+				return null;
+			}
+
+			double[] weights = new double[featureCount];
+			buffer.asDoubleBuffer().get(weights);
+			return new Snapshot(weights, episode, sequence, epsilon, alpha, gamma);
+		} catch (IOException ex) {
+			System.err.println("Failed to read checkpoint " + file + ". Reason: " + ex.getMessage());
+			return null;
+		}
+	}
+
+	//reads the first bytes of a file into a little-endian buffer, or null if it is shorter
+	private static ByteBuffer readFully(FileChannel channel, int size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				return null;
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	//the file of the ring that holds the snapshot with the given sequence number
+	private File snapshotFile(long sequence) {
+		return new File(directory, "weights-" + (sequence % retained) + ".bin");
+	}
+}